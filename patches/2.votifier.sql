@@ -0,0 +1,13 @@
+SET @OLD_UNIQUE_CHECKS=@@UNIQUE_CHECKS, UNIQUE_CHECKS=0;
+SET @OLD_FOREIGN_KEY_CHECKS=@@FOREIGN_KEY_CHECKS, FOREIGN_KEY_CHECKS=0;
+SET @OLD_SQL_MODE=@@SQL_MODE, SQL_MODE='TRADITIONAL,ALLOW_INVALID_DATES';
+
+-- count the votes of every service separately
+-- the unique key is added first, since the foreign key on player_id needs an index at all times
+
+CREATE UNIQUE INDEX `$prefix_un_votifier_id1_idx` ON `$prefix_votifier_totals` (`player_id`, `service_name`);
+ALTER TABLE `$prefix_votifier_totals` DROP PRIMARY KEY;
+
+SET SQL_MODE=@OLD_SQL_MODE;
+SET FOREIGN_KEY_CHECKS=@OLD_FOREIGN_KEY_CHECKS;
+SET UNIQUE_CHECKS=@OLD_UNIQUE_CHECKS;
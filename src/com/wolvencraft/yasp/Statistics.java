@@ -161,7 +161,7 @@ public class Statistics extends JavaPlugin {
         
         CachedData.startAll();
         
-        Bukkit.getScheduler().runTaskTimerAsynchronously(this, new DatabaseTask(), (ping / 2), ping);
+        new DatabaseTask(ping).schedule(ping / 2);
         Bukkit.getScheduler().runTaskTimerAsynchronously(this, new RefreshTask(), 0L, 20L);
         
         //Run task every 10 minuts
@@ -30,7 +30,6 @@ import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.Plugin;
 
-import com.wolvencraft.yasp.db.Database;
 import com.wolvencraft.yasp.db.Query;
 import com.wolvencraft.yasp.db.ScriptRunner;
 import com.wolvencraft.yasp.db.tables.Miscellaneous.SettingsTable;
@@ -121,7 +120,7 @@ public class StatisticsAPI {
         InputStream is = new FileInputStream(plugin.getDataFolder() + "/" + path + ".sql");
         Message.log(Level.FINE, "Executing external database patch: " + path + ".sql");
         
-        ScriptRunner scriptRunner = new ScriptRunner(Database.getConnection());
+        ScriptRunner scriptRunner = new ScriptRunner();
         try {scriptRunner.runScript(new InputStreamReader(is)); }
         catch (RuntimeSQLException e) { throw new DatabaseConnectionException("An error occured while executing database patch: " + path + ".sql", e); }
         finally {
@@ -20,6 +20,7 @@
 
 package com.wolvencraft.yasp.cmd;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.bukkit.Bukkit;
@@ -32,13 +33,17 @@ import com.wolvencraft.yasp.Statistics;
 import com.wolvencraft.yasp.db.Database;
 import com.wolvencraft.yasp.db.Query;
 import com.wolvencraft.yasp.db.Query.QueryResult;
+import com.wolvencraft.yasp.db.Query.RowHandler;
+import com.wolvencraft.yasp.db.data.EventBuffer;
 import com.wolvencraft.yasp.db.tables.Normal.PlayerStats;
 import com.wolvencraft.yasp.settings.Constants.StatPerms;
+import com.wolvencraft.yasp.settings.LocalConfiguration;
 import com.wolvencraft.yasp.util.ExceptionHandler;
 import com.wolvencraft.yasp.util.Message;
 import com.wolvencraft.yasp.util.cache.OnlineSessionCache;
 import com.wolvencraft.yasp.util.tasks.DatabaseTask;
 import com.wolvencraft.yasp.util.tasks.SignRefreshTask;
+import com.wolvencraft.yasp.util.tasks.SyncController;
 
 public class DatabaseCommands {
     
@@ -59,11 +64,19 @@ public class DatabaseCommands {
             public void run() {
                 DatabaseTask.commit();
                 
-                List<QueryResult> results= Query.table(PlayerStats.TableName).column(PlayerStats.Name).condition(PlayerStats.Online, true).selectAll();
-                for(QueryResult result : results) {
-                    String playerName = result.asString(PlayerStats.Name);
-                    if(Bukkit.getPlayerExact(playerName) == null)
-                        Query.table(PlayerStats.TableName).value(PlayerStats.Online, false).condition(PlayerStats.Name, playerName).update();
+                final List<String> offlinePlayers = new ArrayList<String>();
+                Query.table(PlayerStats.TableName).column(PlayerStats.Name).condition(PlayerStats.Online, true).stream(new RowHandler() {
+                    
+                    @Override
+                    public boolean handle(QueryResult result) {
+                        String playerName = result.asString(PlayerStats.Name);
+                        if(Bukkit.getPlayerExact(playerName) == null) offlinePlayers.add(playerName);
+                        return true;
+                    }
+                    
+                });
+                for(String playerName : offlinePlayers) {
+                    Query.table(PlayerStats.TableName).value(PlayerStats.Online, false).condition(PlayerStats.Name, playerName).update();
                 }
                 
                 Bukkit.getScheduler().runTask(Statistics.getInstance(), new Runnable() {
@@ -156,6 +169,34 @@ public class DatabaseCommands {
         return true;
     }
     
+    @Command(
+            alias = "syncstatus",
+            minArgs = 0,
+            maxArgs = 0,
+            permission = "stats.cmd.sync",
+            allowConsole = true,
+            usage = "/stats syncstatus",
+            description = "Shows how often the data is synchronized, and why"
+            )
+    public static boolean syncStatus(List<String> args) {
+        CommandSender sender = CommandManager.getSender();
+        SyncController controller = DatabaseTask.getController();
+        if(controller == null) {
+            Message.sendFormattedError(sender, "Synchronization has not been started yet");
+            return true;
+        }
+        
+        Message.sendFormattedSuccess(sender, "Synchronizing every " + (controller.getInterval() / 20) + " seconds"
+                + " (configured: " + (controller.getBaseInterval() / 20) + ")");
+        Message.send(sender, " Pending entries: " + controller.getBacklog() + " / " + controller.getBacklogLimit());
+        Message.send(sender, " Buffered events: " + EventBuffer.getGlobalDepth() + " / " + LocalConfiguration.DBBufferGlobalLimit.toInteger()
+                + " (spilled: " + EventBuffer.getSpilled() + ", dropped: " + EventBuffer.getDropped() + ")");
+        Message.send(sender, " Average slot time: " + Math.round(controller.getLatency()) + " ms");
+        Message.send(sender, " Database: " + Database.getConnectionState());
+        Message.send(sender, " Reason: " + controller.getReason());
+        return true;
+    }
+    
     @Command(
             alias = "reconnect",
             minArgs = 0,
@@ -167,7 +208,10 @@ public class DatabaseCommands {
             )
     public static boolean reconnect(List<String> args) {
         try {
-            Database.reconnect();
+            if(!Database.reconnect()) {
+                Message.sendFormattedError(CommandManager.getSender(), "Unable to reach the database; will keep retrying in the background");
+                return true;
+            }
             Message.sendFormattedSuccess(CommandManager.getSender(), "Re-established the database connection");
             return true;
         } catch (Exception ex) {
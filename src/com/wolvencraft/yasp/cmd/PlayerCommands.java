@@ -21,11 +21,17 @@
 package com.wolvencraft.yasp.cmd;
 
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
 
 import org.bukkit.entity.Player;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.wolvencraft.yasp.CommandManager;
 import com.wolvencraft.yasp.CommandManager.Command;
+import com.wolvencraft.yasp.db.DatabaseExecutor;
+import com.wolvencraft.yasp.util.BookUtil;
 import com.wolvencraft.yasp.util.Message;
 import com.wolvencraft.yasp.util.cache.OnlineSessionCache;
 
@@ -41,8 +47,26 @@ public class PlayerCommands {
             description = "Get a book with all your statistical information"
             )
     public static boolean book(List<String> args) {
-        Player player = (Player) CommandManager.getSender();
-        player.getInventory().addItem(com.wolvencraft.yasp.util.BookUtil.compileStatsBook(player));
+        final Player player = (Player) CommandManager.getSender();
+        final UUID uuid = player.getUniqueId();
+        
+        ListenableFuture<String[]> pages = DatabaseExecutor.submit(new Callable<String[]>() {
+            @Override
+            public String[] call() { return BookUtil.getBookPages(uuid); }
+        });
+        
+        DatabaseExecutor.onMainThread(pages, new FutureCallback<String[]>() {
+            @Override
+            public void onSuccess(String[] pages) {
+                if(!player.isOnline()) return;
+                player.getInventory().addItem(BookUtil.compileStatsBook(player, pages));
+            }
+            
+            @Override
+            public void onFailure(Throwable t) {
+                if(player.isOnline()) Message.sendFormattedError(player, "Unable to compile your statistics book");
+            }
+        });
         return false;
     }
     
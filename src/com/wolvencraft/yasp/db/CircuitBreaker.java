@@ -0,0 +1,207 @@
+/*
+ * CircuitBreaker.java
+ *
+ * Statistics
+ * Copyright (C) 2013 bitWolfy <http://www.wolvencraft.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.wolvencraft.yasp.db;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+
+import com.wolvencraft.yasp.settings.LocalConfiguration;
+import com.wolvencraft.yasp.util.ExceptionHandler;
+import com.wolvencraft.yasp.util.Message;
+
+/**
+ * Keeps track of whether the database is reachable.<br />
+ * While the circuit is <b>closed</b>, queries are sent to the database as usual. Once a query detects that the
+ * connection was lost, the circuit is <b>opened</b>, and queries fail fast without touching JDBC. A single background
+ * prober then checks the connection, <b>half-opening</b> the circuit for the duration of the check. If the check fails,
+ * the next one is scheduled with an exponential backoff; if it succeeds, the circuit is closed again.
+ * @author bitWolfy
+ *
+ */
+public class CircuitBreaker {
+    
+    private final Callable<Boolean> probe;
+    private final Runnable onClose;
+    private final long baseDelay;
+    private final long maxDelay;
+    
+    private final AtomicReference<State> state;
+    private final ScheduledExecutorService prober;
+    private final Object probeLock;
+    private int failures;
+    
+    /**
+     * <b>Default constructor</b><br />
+     * Creates a new circuit breaker in the closed state
+     * @param probe Check that returns <b>true</b> if the database is reachable
+     * @param onClose Task to run on the prober thread after the circuit was closed
+     * @param baseDelay Delay before the second check, in milliseconds. The first check is run immediately
+     * @param maxDelay Maximum delay between two checks, in milliseconds
+     */
+    public CircuitBreaker(Callable<Boolean> probe, Runnable onClose, long baseDelay, long maxDelay) {
+        this.probe = probe;
+        this.onClose = onClose;
+        this.baseDelay = Math.max(1000, baseDelay);
+        this.maxDelay = Math.max(this.baseDelay, maxDelay);
+        
+        this.state = new AtomicReference<State>(State.Closed);
+        this.prober = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Statistics-DB-Probe");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.probeLock = new Object();
+        this.failures = 0;
+    }
+    
+    /**
+     * Returns the current state of the circuit
+     * @return Circuit state
+     */
+    public State getState() {
+        return state.get();
+    }
+    
+    /**
+     * Checks if queries may be sent to the database
+     * @return <b>true</b> if the circuit is closed, <b>false</b> otherwise
+     */
+    public boolean isClosed() {
+        return state.get() == State.Closed;
+    }
+    
+    /**
+     * Opens the circuit after a query detected that the connection was lost.<br />
+     * Does nothing if the circuit is already open; only the first caller schedules the prober.
+     */
+    public void trip() {
+        if(!state.compareAndSet(State.Closed, State.Open)) return;
+        Message.log(Level.WARNING, "Lost the connection to the database. Data is being stored locally.");
+        schedule(0);
+    }
+    
+    /**
+     * Checks the connection right away, on the calling thread.<br />
+     * Does nothing if the circuit is closed. If the check fails, the background prober keeps its own schedule;
+     * if it succeeds, the spooled data is replayed on the prober thread.
+     * @return <b>true</b> if the database is reachable, <b>false</b> otherwise
+     */
+    public boolean probe() {
+        synchronized(probeLock) {
+            if(state.get() == State.Closed) return true;
+            if(!attempt()) {
+                Message.log(Level.SEVERE, "Failed to re-connect to the database. Retrying in the background.");
+                return false;
+            }
+        }
+        execute(onClose, 0);
+        return true;
+    }
+    
+    /**
+     * Half-opens the circuit and checks the connection.<br />
+     * The circuit is closed if the check succeeds, and opened again otherwise. Must be called with the probe lock held.
+     * @return <b>true</b> if the database is reachable, <b>false</b> otherwise
+     */
+    private boolean attempt() {
+        state.set(State.HalfOpen);
+        
+        boolean success;
+        try { success = probe.call(); }
+        catch (Throwable t) {
+            if(LocalConfiguration.Debug.toBoolean()) ExceptionHandler.handle(t);
+            success = false;
+        }
+        
+        if(success) {
+            Message.log("Connection re-established. No data is lost.");
+            failures = 0;
+            state.set(State.Closed);
+        } else state.set(State.Open);
+        return success;
+    }
+    
+    /**
+     * Stops the prober.<br />
+     * The circuit stays in its current state.
+     */
+    public void shutdown() {
+        prober.shutdownNow();
+    }
+    
+    /**
+     * Schedules a background check of the connection.<br />
+     * If the check fails, the next one is scheduled with a longer delay; this is the only place the prober reschedules itself.
+     * @param delay Delay before the check, in milliseconds
+     */
+    private void schedule(long delay) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                long next;
+                synchronized(probeLock) {
+                    if(state.get() != State.Open) return;
+                    if(attempt()) next = -1;
+                    else {
+                        failures++;
+                        next = Math.min(maxDelay, baseDelay << Math.min(failures - 1, 20));
+                        Message.log(Level.SEVERE, "Failed to re-connect to the database. Retrying in " + (next / 1000) + " seconds.");
+                    }
+                }
+                if(next < 0) onClose.run();
+                else schedule(next);
+            }
+        }, delay);
+    }
+    
+    /**
+     * Runs the task on the prober thread
+     * @param task Task to run
+     * @param delay Delay before the task is run, in milliseconds
+     */
+    private void execute(Runnable task, long delay) {
+        try { prober.schedule(task, delay, TimeUnit.MILLISECONDS); }
+        catch (RejectedExecutionException ex) {
+            Message.debug("Database prober has been stopped");
+        }
+    }
+    
+    /**
+     * Represents the state of the circuit
+     * @author bitWolfy
+     *
+     */
+    public enum State {
+        Closed,
+        Open,
+        HalfOpen;
+    }
+    
+}
@@ -0,0 +1,188 @@
+/*
+ * ConnectionPool.java
+ *
+ * Statistics
+ * Copyright (C) 2013 bitWolfy <http://www.wolvencraft.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.wolvencraft.yasp.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import com.wolvencraft.yasp.db.engine.StorageEngine;
+import com.wolvencraft.yasp.util.Message;
+
+/**
+ * A bounded pool of database connections.<br />
+ * Connections are opened lazily, up to the maximum pool size, and are validated before being
+ * handed out if they have been sitting idle for a while.
+ * @author bitWolfy
+ *
+ */
+public class ConnectionPool {
+
+    private static final long VALIDATION_INTERVAL = 30000;
+    private static final int VALIDATION_TIMEOUT = 5;
+
+    private final StorageEngine engine;
+
+    @Getter(AccessLevel.PUBLIC)
+    private final int size;
+    private final long timeout;
+    private final int statementCacheSize;
+
+    private final LinkedBlockingDeque<PooledConnection> idle;
+    private final Semaphore permits;
+    private volatile boolean closed;
+
+    /**
+     * <b>Default constructor</b><br />
+     * Creates a new connection pool. No connections are opened until they are requested.
+     * @param engine Storage engine that opens the connections
+     * @param size Maximum number of connections
+     * @param timeout Maximum time to wait for a free connection, in seconds
+     * @param statementCacheSize Number of prepared statements to cache per connection
+     */
+    public ConnectionPool(StorageEngine engine, int size, int timeout, int statementCacheSize) {
+        this.engine = engine;
+
+        this.size = Math.max(1, size);
+        this.timeout = Math.max(1, timeout) * 1000L;
+        this.statementCacheSize = Math.max(1, statementCacheSize);
+
+        this.idle = new LinkedBlockingDeque<PooledConnection>();
+        this.permits = new Semaphore(this.size, true);
+        this.closed = false;
+    }
+
+    /**
+     * Borrows a connection from the pool.<br />
+     * Blocks until a connection becomes available, or the pool timeout runs out.
+     * @return Pooled connection
+     * @throws SQLTimeoutException Thrown if no connection became available in time
+     * @throws SQLException Thrown if a new connection could not be opened
+     */
+    public PooledConnection borrow() throws SQLException {
+        if(closed) throw new SQLException("Connection pool has been closed");
+
+        try {
+            if(!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS))
+                throw new SQLTimeoutException("Timed out waiting for a database connection (" + size + " in use)");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", ex);
+        }
+
+        try {
+            PooledConnection connection;
+            while((connection = idle.pollFirst()) != null) {
+                if(System.currentTimeMillis() - connection.getLastUsed() < VALIDATION_INTERVAL
+                        || connection.isValid(VALIDATION_TIMEOUT)) {
+                    connection.touch();
+                    return connection;
+                }
+                Message.debug("Discarding a stale database connection");
+                connection.close();
+            }
+            return open();
+        } catch (SQLException ex) {
+            permits.release();
+            throw ex;
+        } catch (RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the connection to the pool.<br />
+     * Broken connections are closed and a new one will be opened in their place when needed.
+     * @param connection Connection to return, can be <b>null</b>
+     */
+    public void release(PooledConnection connection) {
+        if(connection == null) return;
+
+        try { if(!connection.isBroken()) connection.getConnection().rollback(); }
+        catch (SQLException ex) { connection.setBroken(); }
+
+        if(closed || connection.isBroken()) connection.close();
+        else {
+            connection.touch();
+            idle.offerFirst(connection);
+        }
+        permits.release();
+    }
+
+    /**
+     * Closes all idle connections.<br />
+     * Used after the database connection was lost, since the idle connections are most likely dead as well.
+     */
+    public void purge() {
+        PooledConnection connection;
+        while((connection = idle.pollFirst()) != null) connection.close();
+    }
+
+    /**
+     * Closes the pool and all idle connections.<br />
+     * Connections that are currently in use are closed when they are returned.
+     */
+    public void close() {
+        closed = true;
+        purge();
+    }
+
+    /**
+     * Checks if the pool has been closed
+     * @return <b>true</b> if the pool is closed, <b>false</b> otherwise
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Returns the number of connections currently in use
+     * @return Number of borrowed connections
+     */
+    public int getActive() {
+        return size - permits.availablePermits();
+    }
+
+    /**
+     * Opens a new physical connection
+     * @return New pooled connection
+     * @throws SQLException Thrown if the connection could not be opened
+     */
+    private PooledConnection open() throws SQLException {
+        Connection connection = engine.connect();
+        try { if (connection.getAutoCommit()) connection.setAutoCommit(false); }
+        catch (SQLException ex) {
+            try { connection.close(); }
+            catch (SQLException e) { }
+            throw ex;
+        }
+        Message.debug("Opened a new database connection");
+        return new PooledConnection(connection, statementCacheSize);
+    }
+
+}
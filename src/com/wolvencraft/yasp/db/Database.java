@@ -25,20 +25,31 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.Savepoint;
 import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 
 import org.bukkit.Bukkit;
 
 import com.wolvencraft.yasp.Statistics;
 import com.wolvencraft.yasp.db.Query.QueryResult;
+import com.wolvencraft.yasp.db.Query.RowHandler;
+import com.wolvencraft.yasp.db.engine.H2Engine;
+import com.wolvencraft.yasp.db.engine.MySQLEngine;
+import com.wolvencraft.yasp.db.engine.StorageEngine;
 import com.wolvencraft.yasp.db.tables.Miscellaneous.SettingsTable;
 import com.wolvencraft.yasp.events.plugin.DatabasePatchEvent;
 import com.wolvencraft.yasp.exceptions.DatabaseConnectionException;
@@ -57,29 +68,54 @@ import com.wolvencraft.yasp.util.Message;
  */
 public class Database {
     
-    private static Connection connection = null;
-    private static double last_reconnect = 0;
-    private static boolean already_reconnecting = false;
+    private static StorageEngine engine = null;
+    private static ConnectionPool pool = null;
+    private static WriteSpool spool = null;
+    private static WriteSpool overflow = null;
+    private static CircuitBreaker breaker = null;
+    private static final ThreadLocal<Transaction> TRANSACTION = new ThreadLocal<Transaction>();
+    private static final ThreadLocal<FlushPlan> PLAN = new ThreadLocal<FlushPlan>();
+    
+    private static final int VALIDATION_TIMEOUT = 2;
     
     /**
      * Default constructor. Connects to the remote database, performs patches if necessary, and holds to the DB info.<br />
+     * The storage engine is selected with the <i>database.engine</i> setting.
      * @throws DatabaseConnectionException Thrown if the plugin could not connect to the database
      */
     public Database() throws DatabaseConnectionException {
         
-        try { Class.forName("com.mysql.jdbc.Driver"); }
-        catch (ClassNotFoundException ex) { throw new DatabaseConnectionException("MySQL driver was not found!"); }
+        engine = createEngine(LocalConfiguration.DBEngine.toString());
+        engine.load();
+        Message.debug("Using the " + engine.getName() + " storage engine");
         
-        try {
-            connection = DriverManager.getConnection(
-                LocalConfiguration.DBConnect.toString(),
-                LocalConfiguration.DBUser.toString(),
-                LocalConfiguration.DBPass.toString()
-            );
-        } catch (SQLException e) { throw new DatabaseConnectionException(e); }
+        pool = new ConnectionPool(
+            engine,
+            LocalConfiguration.DBPoolSize.toInteger(),
+            LocalConfiguration.DBPoolTimeout.toInteger(),
+            LocalConfiguration.DBStatementCache.toInteger()
+        );
+        
+        try { pool.release(pool.borrow()); }
+        catch (SQLException e) {
+            pool.close();
+            throw new DatabaseConnectionException(e);
+        }
         
-        try { if (connection.getAutoCommit()) connection.setAutoCommit(false); }
-        catch (Throwable t) { throw new RuntimeSQLException("Could not set AutoCommit to false. Cause: " + t, t); }
+        spool = new WriteSpool(new File(Statistics.getInstance().getDataFolder(), "spool"), true);
+        overflow = new WriteSpool(new File(Statistics.getInstance().getDataFolder(), "overflow"), false);
+        breaker = new CircuitBreaker(
+            new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws SQLException { return probe(); }
+            },
+            new Runnable() {
+                @Override
+                public void run() { replaySpool(); }
+            },
+            LocalConfiguration.DBReconnect.toInteger() * 1000L,
+            LocalConfiguration.DBReconnectMax.toInteger() * 1000L
+        );
         
         if(!patchDatabase(false)) Message.log("Target database is up to date");
         
@@ -89,6 +125,18 @@ public class Database {
         Module.clearCache();
     }
     
+    /**
+     * Creates the storage engine with the specified name
+     * @param name Engine name, as specified in the configuration
+     * @return Storage engine
+     * @throws DatabaseConnectionException Thrown if there is no engine with that name
+     */
+    private static StorageEngine createEngine(String name) throws DatabaseConnectionException {
+        if(name == null || name.isEmpty() || name.equalsIgnoreCase("mysql")) return new MySQLEngine();
+        if(name.equalsIgnoreCase("h2")) return new H2Engine();
+        throw new DatabaseConnectionException("Unknown storage engine: " + name);
+    }
+    
     /**
      * Patches the remote database to the latest version.<br />
      * This method will run in the <b>main server thread</b> and therefore will freeze the server until the patch is complete.
@@ -100,8 +148,10 @@ public class Database {
         int databaseVersion;
         if(force) { databaseVersion = 1; }
         else {
+            PooledConnection connection = null;
             try {
-                if(connection.getMetaData().getTables(null, null, LocalConfiguration.DBPrefix.toString() + SettingsTable.TableName.toString(), null).next()){
+                connection = pool.borrow();
+                if(connection.getConnection().getMetaData().getTables(null, null, LocalConfiguration.DBPrefix.toString() + SettingsTable.TableName.toString(), null).next()){
                     databaseVersion = RemoteConfiguration.DatabaseVersion.asInteger();
                 } else {
                     databaseVersion = 0;
@@ -109,7 +159,7 @@ public class Database {
             } catch (SQLException e) {
                 if (LocalConfiguration.Debug.toBoolean()) e.printStackTrace();
                 databaseVersion = 0;
-            }
+            } finally { pool.release(connection); }
         }
         int latestPatchVersion = databaseVersion;
         
@@ -124,7 +174,7 @@ public class Database {
         Message.debug("Current version: " + databaseVersion + ", latest version: " + latestPatchVersion);
         databaseVersion++;
         
-        ScriptRunner scriptRunner = new ScriptRunner(connection);
+        ScriptRunner scriptRunner = new ScriptRunner();
         Message.log("+-------] Database Patcher [-------+");
         for(; databaseVersion <= latestPatchVersion; databaseVersion++) {
             Message.log("|       Applying patch " + databaseVersion + " / " + latestPatchVersion + "       |");
@@ -160,7 +210,7 @@ public class Database {
         Message.debug("Current version: " + moduleVersion + ", latest version: " + latestPatchVersion);
         moduleVersion++;
         
-        ScriptRunner scriptRunner = new ScriptRunner(connection);
+        ScriptRunner scriptRunner = new ScriptRunner();
         Message.log("+-------] Database Patcher [-------+");
         Message.log("|" + Message.centerString("Patching " + module.name(), 34) + "|");
         for(; moduleVersion <= latestPatchVersion; moduleVersion++) {
@@ -179,7 +229,7 @@ public class Database {
      * @return <b>true</b> if a patch was applied, <b>false</b> if it was not.
      */
     public static boolean executePatch(String patchId) throws DatabaseConnectionException {
-        return executePatch(new ScriptRunner(connection), patchId);
+        return executePatch(new ScriptRunner(), patchId);
     }
     
     /**
@@ -211,47 +261,69 @@ public class Database {
     }
     
     /**
-     * Attempts to reconnect to the remote server
-     * @return <b>true</b> if the connection was present, or reconnect is successful. <b>false</b> otherwise.
+     * Attempts to reconnect to the remote server right away, on the calling thread.<br />
+     * Reconnecting normally happens in the background, with the circuit breaker backing off between attempts.
+     * Does nothing if the connection has not been lost.
+     * @return <b>true</b> if the reconnect is successful or not needed. <b>false</b> otherwise.
      */
     public static boolean reconnect() {
-        try {
-            if (connection.isValid(10)) {
-                Message.log("Connection is still present. Malformed query detected.");
-                return false;
-            }
-            
-            if (System.currentTimeMillis() < last_reconnect + (LocalConfiguration.DBReconnect.toInteger() * 1000)) {
-                return false;
-            }
-            
-            if (already_reconnecting) {
-                return false;
-            } else {
-                already_reconnecting = true;
+        if (pool == null || pool.isClosed()) {
+            return false;
+        }
+        if(breaker.isClosed()) return true;
+        Message.log(Level.WARNING, "Attempting to re-connect to the database");
+        return breaker.probe();
+    }
+    
+    /**
+     * Checks if the database is reachable.<br />
+     * Idle pooled connections are discarded and a fresh connection is opened and validated.
+     * @return <b>true</b> if the database is reachable, <b>false</b> otherwise
+     * @throws SQLException Thrown if a connection could not be opened
+     */
+    private static boolean probe() throws SQLException {
+        if (pool == null || pool.isClosed()) return false;
+        pool.purge();
+        PooledConnection connection = pool.borrow();
+        try { return connection.isValid(VALIDATION_TIMEOUT); }
+        finally { pool.release(connection); }
+    }
+    
+    /**
+     * Returns the state of the database connection
+     * @return Circuit breaker state
+     */
+    public static CircuitBreaker.State getConnectionState() {
+        return breaker == null ? CircuitBreaker.State.Open : breaker.getState();
+    }
+    
+    /**
+     * Determines whether a query failed because the connection was lost.<br />
+     * If the connection that was used for the query is still alive, the query itself is malformed, and retrying it is pointless.
+     * Connection errors are recognized by their SQL state, so that the connection only has to be validated if the error is ambiguous.
+     * @param connection Connection that was used to run the query, or <b>null</b> if it could not be borrowed
+     * @param t Error that caused the query to fail
+     * @return <b>true</b> if the connection was lost, <b>false</b> otherwise
+     */
+    private static boolean isConnectionLost(PooledConnection connection, Throwable t) {
+        if(t instanceof SQLTimeoutException) {
+            Message.log(Level.WARNING, "All " + pool.getSize() + " database connections are busy");
+            return false;
+        }
+        if(connection == null) return true;
+        if(t instanceof SQLException) {
+            String state = ((SQLException) t).getSQLState();
+            if(state != null && state.startsWith("08")) {
+                connection.setBroken();
+                return true;
             }
-            
-
-            Message.log(Level.WARNING, "Attempting to re-connect to the database");
-            connection = DriverManager.getConnection(
-                LocalConfiguration.DBConnect.toString(),
-                LocalConfiguration.DBUser.toString(),
-                LocalConfiguration.DBPass.toString()
-            );
-            
-            try { if (connection.getAutoCommit()) connection.setAutoCommit(false); }
-            catch (Throwable t) { throw new RuntimeSQLException("Could not set AutoCommit to false. Cause: " + t, t); }
-            
-            Message.log("Connection re-established. No data is lost.");
-            already_reconnecting = false;
-            return true;
-        } catch (Exception e) {
-            already_reconnecting = false;
-            Message.log(Level.SEVERE, "Failed to re-connect to the database. Data is being stored locally.");
-            if (LocalConfiguration.Debug.toBoolean()) e.printStackTrace();
         }
-        last_reconnect = System.currentTimeMillis();
-        return false;
+        if(connection.isValid(VALIDATION_TIMEOUT)) {
+            Message.log("Connection is still present. Malformed query detected.");
+            return false;
+        }
+        connection.setBroken();
+        return true;
     }
     
     /**
@@ -262,24 +334,95 @@ public class Database {
      * @return <b>true</b> if the sync is successful, <b>false</b> otherwise
      */
     public static boolean executeUpdate(String query) {
+        return executeUpdate(query, Collections.emptyList());
+    }
+    
+    /**
+     * Pushes data to the remote database using a cached prepared statement.<br />
+     * This is a raw method and should never be used by itself. Use the <b>QueryUtils</b> wrapper for more options 
+     * and proper error handling. This method is not to be used for regular commits to the database.
+     * @param query Parameterized SQL query
+     * @param parameters Query parameters, in order
+     * @return <b>true</b> if the sync is successful, <b>false</b> otherwise
+     */
+    public static boolean executeUpdate(String query, List<Object> parameters) {
+        List<List<Object>> rows = Collections.singletonList(parameters);
+        if(plan(query, rows)) return true;
+        if(spool != null && spool.offer(query, rows)) return true;
+        if(!breaker.isClosed()) return spoolWrite(query, rows);
+        
+        Transaction transaction = TRANSACTION.get();
         int rowsChanged = 0;
-        Statement statement = null;
+        boolean lost = false;
+        boolean aborted = false;
+        PooledConnection connection = null;
+        try {
+            connection = transaction == null ? pool.borrow() : transaction.getConnection();
+            PreparedStatement statement = connection.prepareStatement(query);
+            bindParameters(statement, parameters);
+            rowsChanged = statement.executeUpdate();
+            if(transaction == null) connection.getConnection().commit();
+            else transaction.record(query, rows);
+        } catch (Throwable t) {
+            ExceptionHandler.handle(t);
+            if(connection != null) connection.discardStatement(query);
+            lost = isConnectionLost(connection, t);
+            aborted = isRolledBack(t);
+            rowsChanged = 0;
+        } finally {
+            if(transaction == null) pool.release(connection);
+        }
+        if(lost) breaker.trip();
+        if(lost || aborted) {
+            if(transaction != null) transaction.abort();
+            return spoolWrite(query, rows);
+        }
+        return rowsChanged > 0;
+    }
+    
+    /**
+     * Inserts a row and returns the key that was generated for it.<br />
+     * Unlike {@link #executeUpdate(String, List)}, the statement is never planned or spooled, since the caller needs the key right away.
+     * It does not join the transaction on the current thread either; the row is committed on its own connection before
+     * the key is returned, so that a rollback of the transaction cannot take back a key the caller already stored.<br />
+     * This is a raw method and should never be used by itself. Use the <b>Query</b> wrapper instead.
+     * @param query Parameterized SQL query
+     * @param parameters Query parameters, in order
+     * @return Generated key, or <b>-1</b> if the row was not inserted or no key was returned
+     */
+    public static long executeInsert(String query, List<Object> parameters) {
+        if(!breaker.isClosed()) return -1;
+        
+        long key = -1;
+        boolean lost = false;
+        PooledConnection connection = null;
+        PreparedStatement statement = null;
+        ResultSet rs = null;
         try {
-            statement = connection.createStatement();
-            rowsChanged = statement.executeUpdate(query);
-            statement.close();
-            connection.commit();
+            connection = pool.borrow();
+            statement = connection.getConnection().prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
+            bindParameters(statement, parameters);
+            statement.executeUpdate();
+            rs = statement.getGeneratedKeys();
+            if(rs.next()) key = rs.getLong(1);
+            connection.getConnection().commit();
         } catch (Throwable t) {
             ExceptionHandler.handle(t);
-            if(reconnect()) return executeUpdate(query);
-            else return false;
+            lost = isConnectionLost(connection, t);
+            key = -1;
         } finally {
+            if (rs != null) {
+                try { rs.close(); }
+                catch (SQLException e) { Message.log(Level.SEVERE, "Error closing database connection [ResultSet]"); }
+            }
             if (statement != null) {
                 try { statement.close(); }
-                catch (SQLException e) { Message.log(Level.SEVERE, "Error closing database connection"); }
+                catch (SQLException e) { Message.log(Level.SEVERE, "Error closing database connection [Statement]"); }
             }
+            pool.release(connection);
         }
-        return rowsChanged > 0;
+        if(lost) breaker.trip();
+        return key;
     }
     
     /**
@@ -290,23 +433,85 @@ public class Database {
      * @return Data from the remote database
      */
     public static List<QueryResult> executeQuery(String query) {
+        return executeQuery(query, Collections.emptyList());
+    }
+    
+    /**
+     * Returns the data from the remote server according to the SQL query, using a cached prepared statement.<br />
+     * This is a raw method and should never be used by itself. Use the <b>QueryUtils</b> wrapper for more options 
+     * and proper error handling. This method is not to be used for regular commits to the database.
+     * @param query Parameterized SQL query
+     * @param parameters Query parameters, in order
+     * @return Data from the remote database
+     */
+    public static List<QueryResult> executeQuery(String query, List<Object> parameters) {
         List<QueryResult> colData = new ArrayList<QueryResult>();
-        Statement statement = null;
+        if(!breaker.isClosed()) return colData;
+        
+        Transaction transaction = TRANSACTION.get();
+        boolean lost = false;
+        boolean aborted = false;
+        PooledConnection connection = null;
+        ResultSet rs = null;
+        try {
+            connection = transaction == null ? pool.borrow() : transaction.getConnection();
+            PreparedStatement statement = connection.prepareStatement(query);
+            bindParameters(statement, parameters);
+            rs = statement.executeQuery();
+            colData = QueryResultSet.read(rs);
+        } catch (Throwable t) {
+            ExceptionHandler.handle(t);
+            if(connection != null) connection.discardStatement(query);
+            lost = isConnectionLost(connection, t);
+            aborted = isRolledBack(t);
+            colData = new ArrayList<QueryResult>();
+        } finally {
+            if (rs != null) {
+                try { rs.close(); }
+                catch (SQLException e) { Message.log(Level.SEVERE, "Error closing database connection [ResultSet]"); }
+            }
+            if(transaction == null) pool.release(connection);
+        }
+        if(lost) breaker.trip();
+        if((lost || aborted) && transaction != null) transaction.abort();
+        return colData;
+    }
+    
+    /**
+     * Streams the data from the remote server to the row handler.<br />
+     * The driver is asked to stream the rows one by one instead of buffering the entire result, so the memory use
+     * does not depend on the size of the result. Streamed queries are not retried if the connection is lost midway.<br />
+     * This is a raw method and should never be used by itself. Use the <b>Query</b> wrapper instead.
+     * @param query Parameterized SQL query
+     * @param parameters Query parameters, in order
+     * @param handler Row handler
+     * @return Number of rows passed to the handler, or <b>-1</b> if an error occurred
+     */
+    public static long executeStream(String query, List<Object> parameters, RowHandler handler) {
+        if(!breaker.isClosed()) return -1;
+        
+        long rows = 0;
+        PooledConnection connection = null;
+        PreparedStatement statement = null;
         ResultSet rs = null;
         try {
-            statement = connection.createStatement();
-            rs = statement.executeQuery(query);
+            connection = pool.borrow();
+            statement = connection.getConnection().prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(engine.getStreamingFetchSize());
+            bindParameters(statement, parameters);
+            rs = statement.executeQuery();
+            
+            QueryResultSet buffer = QueryResultSet.forMetaData(rs.getMetaData());
             while (rs.next()) {
-                HashMap<String, String> rowToAdd = new HashMap<String, String>();
-                for (int x = 1; x <= rs.getMetaData().getColumnCount(); ++x) {
-                    rowToAdd.put(rs.getMetaData().getColumnName(x), rs.getString(x));
-                }
-                colData.add(Query.toQueryResult(rowToAdd));
+                buffer.clearRows();
+                buffer.readRow(rs);
+                rows++;
+                if(!handler.handle(buffer.get(0))) break;
             }
         } catch (Throwable t) {
             ExceptionHandler.handle(t);
-            if(reconnect()) return executeQuery(query);
-            else return new ArrayList<QueryResult>();
+            if(isConnectionLost(connection, t)) breaker.trip();
+            rows = -1;
         } finally {
             if (rs != null) {
                 try { rs.close(); }
@@ -316,17 +521,318 @@ public class Database {
                 try { statement.close(); }
                 catch (SQLException e) { Message.log(Level.SEVERE, "Error closing database connection [Statement]"); }
             }
+            pool.release(connection);
+        }
+        return rows;
+    }
+    
+    /**
+     * Pushes a batch of rows to the remote database in a single round trip.<br />
+     * All rows share the same parameterized query; the whole batch is committed or rolled back together.
+     * If it is part of a transaction started with {@link #beginTransaction()}, a batch that is rejected is rolled back
+     * to the state before it, and the rest of the transaction is kept.
+     * This is a raw method and should never be used by itself. Use the <b>Query</b> wrapper instead.
+     * @param query Parameterized SQL query
+     * @param rows Query parameters for each row
+     * @return <b>true</b> if the batch was committed, <b>false</b> otherwise
+     */
+    public static boolean executeBatch(String query, List<List<Object>> rows) {
+        if(rows.isEmpty()) return true;
+        if(plan(query, rows)) return true;
+        if(spool != null && spool.offer(query, rows)) return true;
+        if(!breaker.isClosed()) return spoolWrite(query, rows);
+        
+        Transaction transaction = TRANSACTION.get();
+        boolean success = false;
+        boolean lost = false;
+        boolean aborted = false;
+        PooledConnection connection = null;
+        Savepoint savepoint = null;
+        try {
+            connection = transaction == null ? pool.borrow() : transaction.getConnection();
+            if(transaction != null) savepoint = connection.getConnection().setSavepoint();
+            PreparedStatement statement = connection.prepareStatement(query);
+            for(List<Object> row : rows) {
+                bindParameters(statement, row);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            if(transaction == null) connection.getConnection().commit();
+            else transaction.record(query, rows);
+            success = true;
+        } catch (Throwable t) {
+            ExceptionHandler.handle(t);
+            if(connection != null) connection.discardStatement(query);
+            lost = isConnectionLost(connection, t);
+            aborted = isRolledBack(t);
+            if(!lost && !aborted && savepoint != null) {
+                try { connection.getConnection().rollback(savepoint); }
+                catch (SQLException ex) { aborted = true; }
+            }
+        } finally {
+            if(transaction == null) pool.release(connection);
+        }
+        if(lost) breaker.trip();
+        if(lost || aborted) {
+            if(transaction != null) transaction.abort();
+            return spoolWrite(query, rows);
+        }
+        return success;
+    }
+    
+    /**
+     * Stores the queries in the local spool, to be replayed once the database is reachable again
+     * @param query Parameterized SQL query
+     * @param rows Query parameters for each row
+     * @return <b>true</b> if the queries were spooled, <b>false</b> otherwise
+     */
+    static boolean spoolWrite(String query, List<List<Object>> rows) {
+        return spool != null && spool.append(query, rows);
+    }
+    
+    /**
+     * Moves the queries of buffered entries out of memory when the event buffers overflow.<br />
+     * The queries are kept in a spool of their own, so the regular writes still go to the database while the entries wait.
+     * They are replayed together with the local spool.
+     * @param query Parameterized SQL query
+     * @param rows Query parameters for each row
+     * @return <b>true</b> if the queries were spilled, <b>false</b> otherwise
+     */
+    static boolean spillWrite(String query, List<List<Object>> rows) {
+        return overflow != null && overflow.append(query, rows);
+    }
+    
+    /**
+     * Starts a flush plan on the current thread.<br />
+     * Until the plan is executed, updates run by this thread are not sent to the database; they are collected and grouped
+     * by query instead, so that the rows of many players can be written with a few large batches.
+     * Queries still run immediately. Plans can be nested; only the outermost call to {@link #executePlan()} sends the rows.
+     */
+    public static void beginPlan() {
+        FlushPlan plan = PLAN.get();
+        if(plan == null) PLAN.set(new FlushPlan());
+        else plan.depth++;
+    }
+    
+    /**
+     * Sends the rows collected by the flush plan on the current thread to the database, in a single transaction
+     * @return <b>true</b> if the changes were committed, <b>false</b> if they were moved to the local spool instead
+     */
+    public static boolean executePlan() {
+        FlushPlan plan = PLAN.get();
+        if(plan == null) return true;
+        if(plan.depth > 0) {
+            plan.depth--;
+            return true;
+        }
+        PLAN.remove();
+        return plan.execute();
+    }
+    
+    /**
+     * Checks if there is a flush plan on the current thread
+     * @return <b>true</b> if the updates run by this thread are being planned, <b>false</b> otherwise
+     */
+    public static boolean isPlanning() {
+        return PLAN.get() != null;
+    }
+    
+    /**
+     * Runs the task, placing the updates it makes ahead of the rows that are already in the flush plan on the current thread.<br />
+     * Used for the rows that other planned rows refer to, such as the materials and entities that were first seen
+     * while the plan was being built. If there is no plan, the task is simply run.
+     * @param task Task that makes the updates
+     */
+    public static void planAhead(Runnable task) {
+        FlushPlan plan = PLAN.get();
+        if(plan == null) {
+            task.run();
+            return;
+        }
+        
+        FlushPlan ahead = new FlushPlan();
+        PLAN.set(ahead);
+        try { task.run(); }
+        finally {
+            PLAN.set(plan);
+            plan.prepend(ahead);
+        }
+    }
+    
+    /**
+     * Adds the rows to the flush plan on the current thread, if there is one
+     * @param query Parameterized SQL query
+     * @param rows Query parameters for each row
+     * @return <b>true</b> if the rows were planned, <b>false</b> if they should be sent right away
+     */
+    private static boolean plan(String query, List<List<Object>> rows) {
+        FlushPlan plan = PLAN.get();
+        if(plan == null) return false;
+        plan.add(query, rows);
+        return true;
+    }
+    
+    /**
+     * Starts a transaction on the current thread.<br />
+     * Until the transaction is committed, all updates and queries run by this thread share a single connection,
+     * and nothing is committed after the individual statements. Transactions can be nested; only the outermost
+     * call to {@link #commitTransaction()} commits the changes.<br />
+     * If the transaction is rolled back because the connection was lost, the statements it contained are moved
+     * to the local spool, so no data is lost.
+     */
+    public static void beginTransaction() {
+        Transaction transaction = TRANSACTION.get();
+        if(transaction == null) TRANSACTION.set(new Transaction());
+        else transaction.depth++;
+    }
+    
+    /**
+     * Commits the transaction that was started on the current thread
+     * @return <b>true</b> if the changes were committed, <b>false</b> if they were moved to the local spool instead
+     */
+    public static boolean commitTransaction() {
+        Transaction transaction = TRANSACTION.get();
+        if(transaction == null) return true;
+        if(transaction.depth > 0) {
+            transaction.depth--;
+            return true;
+        }
+        TRANSACTION.remove();
+        return transaction.commit();
+    }
+    
+    /**
+     * Checks if the statement was rolled back together with the rest of the transaction, i.e. because of a deadlock
+     * @param t Error that caused the statement to fail
+     * @return <b>true</b> if the transaction was rolled back, <b>false</b> otherwise
+     */
+    private static boolean isRolledBack(Throwable t) {
+        if(t instanceof SQLTransactionRollbackException) return true;
+        if(!(t instanceof SQLException)) return false;
+        String state = ((SQLException) t).getSQLState();
+        return state != null && state.startsWith("40");
+    }
+    
+    /**
+     * Sends the queries stored in the local spool to the remote database, if there are any,
+     * followed by the entries that were spilled when the event buffers overflowed.<br />
+     * This method will block until the spool is drained, and should not be run on the main server thread.
+     * @return <b>true</b> if the spool is empty, <b>false</b> if some queries are still waiting
+     */
+    public static boolean replaySpool() {
+        if(spool != null && spool.isPending() && !spool.replay()) return false;
+        if(overflow == null || !overflow.isPending()) return true;
+        return overflow.replay();
+    }
+    
+    /**
+     * Pushes a batch of spooled rows to the remote database.<br />
+     * Unlike {@link #executeBatch(String, List)}, the rows are never spooled again. If the database is reachable
+     * but rejects the batch, the rows are retried one by one, and the ones that are rejected again are discarded
+     * so that they do not hold up the rest of the spool.
+     * @param query Parameterized SQL query
+     * @param rows Query parameters for each row
+     * @return <b>true</b> if the batch was committed or discarded, <b>false</b> if the database is unreachable
+     */
+    static boolean replayBatch(String query, List<List<Object>> rows) {
+        if(!breaker.isClosed()) return false;
+        
+        PooledConnection connection = null;
+        try {
+            connection = pool.borrow();
+            PreparedStatement statement = connection.prepareStatement(query);
+            for(List<Object> row : rows) {
+                bindParameters(statement, row);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            connection.getConnection().commit();
+            return true;
+        } catch (Throwable t) {
+            if(connection != null) connection.discardStatement(query);
+            if(t instanceof SQLTimeoutException) return false;
+            if(isConnectionLost(connection, t)) {
+                breaker.trip();
+                return false;
+            }
+            if(rows.size() == 1) {
+                Message.log(Level.SEVERE, "Discarding a spooled query: " + t.getMessage());
+                if(LocalConfiguration.Debug.toBoolean()) ExceptionHandler.handle(t);
+                return true;
+            }
+        } finally {
+            pool.release(connection);
+        }
+        return replayRows(query, rows);
+    }
+    
+    /**
+     * Pushes spooled rows to the remote database one by one, after the database rejected them as a batch.<br />
+     * The rows are committed together; a row that is rejected is rolled back on its own and discarded.
+     * If the connection is lost, nothing is committed, so the rows can be replayed again as they are.
+     * @param query Parameterized SQL query
+     * @param rows Query parameters for each row
+     * @return <b>true</b> if the rows were committed or discarded, <b>false</b> if the database is unreachable
+     */
+    private static boolean replayRows(String query, List<List<Object>> rows) {
+        int discarded = 0;
+        PooledConnection connection = null;
+        try {
+            connection = pool.borrow();
+            PreparedStatement statement = connection.prepareStatement(query);
+            for(List<Object> row : rows) {
+                Savepoint savepoint = connection.getConnection().setSavepoint();
+                try {
+                    bindParameters(statement, row);
+                    statement.executeUpdate();
+                } catch (SQLException ex) {
+                    if(isConnectionLost(connection, ex)) throw ex;
+                    connection.getConnection().rollback(savepoint);
+                    if(LocalConfiguration.Debug.toBoolean()) ExceptionHandler.handle(ex);
+                    discarded++;
+                }
+            }
+            connection.getConnection().commit();
+        } catch (Throwable t) {
+            if(connection != null) connection.discardStatement(query);
+            if(!(t instanceof SQLTimeoutException) && isConnectionLost(connection, t)) breaker.trip();
+            return false;
+        } finally {
+            pool.release(connection);
+        }
+        if(discarded > 0) Message.log(Level.SEVERE, "Discarded " + discarded + " of " + rows.size() + " spooled queries that the database rejected");
+        return true;
+    }
+    
+    /**
+     * Binds the parameters to the prepared statement
+     * @param statement Prepared statement
+     * @param parameters Query parameters, in order
+     * @throws SQLException Thrown if a parameter could not be bound
+     */
+    private static void bindParameters(PreparedStatement statement, List<?> parameters) throws SQLException {
+        for(int i = 0; i < parameters.size(); i++) {
+            Object parameter = parameters.get(i);
+            if(parameter == null) statement.setNull(i + 1, Types.NULL);
+            else if(parameter instanceof Number) statement.setObject(i + 1, parameter);
+            else statement.setString(i + 1, parameter.toString());
         }
-        return colData;
     }
     
     /**
      * Closes the database connection and cleans up any leftover instances to prevent memory leaks
      */
     public static void close() {
-        try { connection.close(); }
-        catch (SQLException e) { Message.log(Level.SEVERE, "Error closing database connection"); }
-        connection = null;
+        DatabaseExecutor.shutdown();
+        FlushExecutor.shutdown();
+        if(breaker != null) breaker.shutdown();
+        if(spool != null) spool.close();
+        if(overflow != null) overflow.close();
+        spool = null;
+        overflow = null;
+        if(pool == null) return;
+        pool.close();
+        pool = null;
     }
     
     /**
@@ -334,14 +840,200 @@ public class Database {
      * @return <b>true</b> if the connection is closed, <b>false</b> if it is open.
      */
     public static boolean isClosed() {
-        return connection == null;
+        return pool == null || pool.isClosed();
+    }
+    
+    /**
+     * Returns the storage engine that is currently in use
+     * @return Storage engine, or <b>null</b> if the database has not been initialized
+     */
+    public static StorageEngine getEngine() {
+        return engine;
+    }
+    
+    /**
+     * Returns the connection pool instance
+     * @return Connection pool
+     */
+    public static ConnectionPool getPool() {
+        return pool;
+    }
+    
+    /**
+     * Represents a set of planned writes that is bound to a thread.<br />
+     * Entries of the same type produce the same parameterized SQL, so grouping the rows by query
+     * turns one statement per player and table into one batch per table.
+     * @author bitWolfy
+     *
+     */
+    private static class FlushPlan {
+        
+        private int depth;
+        private int rows;
+        private final Map<String, List<List<Object>>> statements;
+        
+        /**
+         * <b>Default constructor</b><br />
+         * Creates an empty plan
+         */
+        public FlushPlan() {
+            depth = 0;
+            rows = 0;
+            statements = new LinkedHashMap<String, List<List<Object>>>();
+        }
+        
+        /**
+         * Adds rows to the plan.<br />
+         * Groups are sent in the order their queries first appeared in; rows keep their order within a group.
+         * @param query Parameterized SQL query
+         * @param queryRows Query parameters for each row
+         */
+        public void add(String query, List<List<Object>> queryRows) {
+            List<List<Object>> group = statements.get(query);
+            if(group == null) {
+                group = new ArrayList<List<Object>>();
+                statements.put(query, group);
+            }
+            group.addAll(queryRows);
+            rows += queryRows.size();
+        }
+        
+        /**
+         * Moves the rows of another plan to the front of this one
+         * @param ahead Plan whose rows have to be sent first
+         */
+        public void prepend(FlushPlan ahead) {
+            if(ahead.statements.isEmpty()) return;
+            Map<String, List<List<Object>>> current = new LinkedHashMap<String, List<List<Object>>>(statements);
+            statements.clear();
+            rows = 0;
+            for(Entry<String, List<List<Object>>> statement : ahead.statements.entrySet()) add(statement.getKey(), statement.getValue());
+            for(Entry<String, List<List<Object>>> statement : current.entrySet()) add(statement.getKey(), statement.getValue());
+        }
+        
+        /**
+         * Sends the planned rows in a single transaction, one batch per query and chunk of the configured batch size.<br />
+         * The callers were told that their rows were written when the rows were planned, so a chunk that the database
+         * rejects is moved to the local spool. There, it is retried with the next replay, row by row if necessary.
+         * @return <b>true</b> if the changes were committed, <b>false</b> if they were moved to the local spool instead
+         */
+        public boolean execute() {
+            if(statements.isEmpty()) return true;
+            
+            int batchSize = Math.max(1, LocalConfiguration.DBBatchSize.toInteger());
+            int batches = 0;
+            int spooled = 0;
+            int rejected = 0;
+            boolean committed = false;
+            beginTransaction();
+            try {
+                for(Entry<String, List<List<Object>>> statement : statements.entrySet()) {
+                    List<List<Object>> queryRows = statement.getValue();
+                    for(int start = 0; start < queryRows.size(); start += batchSize) {
+                        List<List<Object>> chunk = queryRows.subList(start, Math.min(start + batchSize, queryRows.size()));
+                        if(!executeBatch(statement.getKey(), chunk)) {
+                            if(spoolWrite(statement.getKey(), chunk)) spooled += chunk.size();
+                            else rejected += chunk.size();
+                        }
+                        batches++;
+                    }
+                }
+            } finally {
+                committed = commitTransaction();
+            }
+            
+            if(spooled > 0) Message.log(Level.WARNING, "The database rejected " + spooled + " of " + rows + " planned rows; they were spooled to be retried");
+            if(rejected > 0) Message.log(Level.SEVERE, "The database rejected " + rejected + " of " + rows + " planned rows, and they could not be spooled");
+            Message.debug("Flushed " + rows + " rows in " + batches + " batches (" + statements.size() + " queries)");
+            statements.clear();
+            return committed;
+        }
+        
     }
     
     /**
-     * Returns the connection instance
-     * @return Connection instance
+     * Represents a transaction that is bound to a thread
+     * @author bitWolfy
+     *
      */
-    public static Connection getConnection() {
-        return connection;
+    private static class Transaction {
+        
+        private PooledConnection connection;
+        private int depth;
+        private final List<String> queries;
+        private final List<List<List<Object>>> rows;
+        
+        /**
+         * <b>Default constructor</b><br />
+         * Creates a new transaction. A connection is not borrowed until the first statement is run.
+         */
+        public Transaction() {
+            connection = null;
+            depth = 0;
+            queries = new ArrayList<String>();
+            rows = new ArrayList<List<List<Object>>>();
+        }
+        
+        /**
+         * Returns the connection the transaction runs on, borrowing one from the pool if necessary
+         * @return Pooled connection
+         * @throws SQLException Thrown if a connection could not be borrowed
+         */
+        public PooledConnection getConnection() throws SQLException {
+            if(connection == null) connection = pool.borrow();
+            return connection;
+        }
+        
+        /**
+         * Records a statement that was run as part of the transaction
+         * @param query Parameterized SQL query
+         * @param queryRows Query parameters for each row
+         */
+        public void record(String query, List<List<Object>> queryRows) {
+            queries.add(query);
+            rows.add(queryRows);
+        }
+        
+        /**
+         * Commits the transaction and returns the connection to the pool
+         * @return <b>true</b> if the changes were committed, <b>false</b> if they were moved to the local spool instead
+         */
+        public boolean commit() {
+            if(connection == null) return true;
+            try {
+                connection.getConnection().commit();
+                queries.clear();
+                rows.clear();
+                return true;
+            } catch (SQLException ex) {
+                ExceptionHandler.handle(ex);
+                if(isConnectionLost(connection, ex)) breaker.trip();
+                abort();
+                return false;
+            } finally {
+                if(connection != null) pool.release(connection);
+                connection = null;
+            }
+        }
+        
+        /**
+         * Rolls back the transaction and moves the statements it contained to the local spool.<br />
+         * The transaction stays open; the following statements run on a new connection.
+         */
+        public void abort() {
+            if(connection != null) pool.release(connection);
+            connection = null;
+            
+            int lostRows = 0;
+            for(int i = 0; i < queries.size(); i++) {
+                if(!spoolWrite(queries.get(i), rows.get(i))) lostRows += rows.get(i).size();
+            }
+            if(lostRows > 0) Message.log(Level.SEVERE, "A transaction was rolled back, and " + lostRows + " rows could not be spooled");
+            else Message.debug("A transaction was rolled back; " + queries.size() + " statements were spooled");
+            queries.clear();
+            rows.clear();
+        }
+        
     }
+    
 }
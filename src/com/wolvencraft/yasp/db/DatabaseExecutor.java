@@ -0,0 +1,153 @@
+/*
+ * DatabaseExecutor.java
+ *
+ * Statistics
+ * Copyright (C) 2013 bitWolfy <http://www.wolvencraft.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.wolvencraft.yasp.db;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bukkit.Bukkit;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.wolvencraft.yasp.Statistics;
+import com.wolvencraft.yasp.settings.LocalConfiguration;
+import com.wolvencraft.yasp.util.Message;
+
+/**
+ * A dedicated, bounded executor for database queries that should not block the server thread.<br />
+ * Queries are run on a small number of daemon threads; if the queue fills up, new tasks are
+ * rejected and their futures fail instead of piling up in memory.
+ * @author bitWolfy
+ *
+ */
+public class DatabaseExecutor {
+
+    private static final long SHUTDOWN_TIMEOUT = 10;
+
+    private static ListeningExecutorService executor = null;
+
+    /**
+     * The executor that runs callbacks on the server thread
+     */
+    private static final Executor MAIN_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            if(Bukkit.isPrimaryThread()) command.run();
+            else Bukkit.getScheduler().runTask(Statistics.getInstance(), command);
+        }
+    };
+
+    private DatabaseExecutor() { }
+
+    /**
+     * Returns the executor, starting it if necessary
+     * @return Database executor
+     */
+    private static synchronized ListeningExecutorService getExecutor() {
+        if(executor != null) return executor;
+
+        int threads = Math.max(1, LocalConfiguration.DBAsyncThreads.toInteger());
+        int capacity = Math.max(1, LocalConfiguration.DBAsyncQueue.toInteger());
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                threads,
+                threads,
+                60L,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(capacity),
+                new DatabaseThreadFactory(),
+                new ThreadPoolExecutor.AbortPolicy()
+                );
+        pool.allowCoreThreadTimeOut(true);
+
+        executor = MoreExecutors.listeningDecorator(pool);
+        Message.debug("Started the database executor with " + threads + " threads");
+        return executor;
+    }
+
+    /**
+     * Runs the task on the database executor
+     * @param task Task to run
+     * @return Future holding the result of the task
+     */
+    public static <T> ListenableFuture<T> submit(Callable<T> task) {
+        try { return getExecutor().submit(task); }
+        catch (RejectedExecutionException ex) {
+            Message.debug("Database executor is saturated; rejecting a query");
+            return Futures.immediateFailedFuture(ex);
+        }
+    }
+
+    /**
+     * Passes the result of the future to the callback on the server thread.<br />
+     * Use this to safely interact with the Bukkit API once an asynchronous query has completed.
+     * @param future Future to wait for
+     * @param callback Callback to run on the server thread
+     */
+    public static <T> void onMainThread(ListenableFuture<T> future, FutureCallback<? super T> callback) {
+        Futures.addCallback(future, callback, MAIN_THREAD);
+    }
+
+    /**
+     * Stops the executor, waiting for the queued queries to finish.<br />
+     * Should be called before the connection pool is closed.
+     */
+    public static synchronized void shutdown() {
+        if(executor == null) return;
+        executor.shutdown();
+        try {
+            if(!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+                Message.log("Timed out waiting for " + executor.shutdownNow().size() + " queued database queries");
+            }
+        } catch (InterruptedException ex) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+    }
+
+    /**
+     * Creates named daemon threads for the database executor
+     * @author bitWolfy
+     *
+     */
+    private static class DatabaseThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Statistics-DB-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * FlushExecutor.java
+ *
+ * Statistics
+ * Copyright (C) 2013 bitWolfy <http://www.wolvencraft.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.wolvencraft.yasp.db;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.wolvencraft.yasp.settings.LocalConfiguration;
+import com.wolvencraft.yasp.util.Message;
+
+/**
+ * Runs the synchronization of player data on a fixed number of lanes.<br />
+ * Every lane is a single thread, and a partition key is always mapped to the same lane, so the data
+ * of one player is pushed in order, while different players are pushed concurrently.
+ * @author bitWolfy
+ *
+ */
+public class FlushExecutor {
+
+    private static final long SHUTDOWN_TIMEOUT = 10;
+
+    private static ListeningExecutorService[] lanes = null;
+
+    private FlushExecutor() { }
+
+    /**
+     * Returns the lanes, starting them if necessary.<br />
+     * There are never more lanes than pooled connections, since every lane holds one while it is working.
+     * @return Synchronization lanes
+     */
+    private static synchronized ListeningExecutorService[] getLanes() {
+        if(lanes != null) return lanes;
+
+        int count = Math.min(LocalConfiguration.DBSyncThreads.toInteger(), LocalConfiguration.DBPoolSize.toInteger());
+        count = Math.max(1, count);
+        lanes = new ListeningExecutorService[count];
+        for(int i = 0; i < count; i++) {
+            lanes[i] = MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor(new LaneThreadFactory(i + 1)));
+        }
+        Message.debug("Started " + count + " synchronization lanes");
+        return lanes;
+    }
+
+    /**
+     * Returns the number of tasks that can run at the same time
+     * @return Number of lanes
+     */
+    public static int getParallelism() {
+        return getLanes().length;
+    }
+
+    /**
+     * Returns the lane that the tasks with the specified partition key are run on
+     * @param key Partition key, i.e. player ID
+     * @return Lane index
+     */
+    public static int getLane(int key) {
+        int count = getParallelism();
+        return ((key % count) + count) % count;
+    }
+
+    /**
+     * Runs the task on the specified lane.<br />
+     * Tasks submitted to the same lane are run one after another, in the order they were submitted.
+     * @param lane Lane index
+     * @param task Task to run
+     * @return Future holding the result of the task
+     */
+    public static <T> ListenableFuture<T> submit(int lane, Callable<T> task) {
+        ListeningExecutorService[] lanes = getLanes();
+        try { return lanes[lane % lanes.length].submit(task); }
+        catch (RejectedExecutionException ex) {
+            return Futures.immediateFailedFuture(ex);
+        }
+    }
+
+    /**
+     * Stops the lanes, waiting for the running synchronization to finish
+     */
+    public static synchronized void shutdown() {
+        if(lanes == null) return;
+        for(ListeningExecutorService lane : lanes) lane.shutdown();
+        try {
+            for(ListeningExecutorService lane : lanes) {
+                if(!lane.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+                    Message.log("Timed out waiting for the player data to be synchronized");
+                    lane.shutdownNow();
+                }
+            }
+        } catch (InterruptedException ex) {
+            for(ListeningExecutorService lane : lanes) lane.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        lanes = null;
+    }
+
+    /**
+     * Creates named daemon threads for the synchronization lanes
+     * @author bitWolfy
+     *
+     */
+    private static class LaneThreadFactory implements ThreadFactory {
+
+        private final int lane;
+
+        public LaneThreadFactory(int lane) {
+            this.lane = lane;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Statistics-Sync-" + lane);
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * PooledConnection.java
+ *
+ * Statistics
+ * Copyright (C) 2013 bitWolfy <http://www.wolvencraft.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.wolvencraft.yasp.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * Represents a physical database connection that is owned by the {@link ConnectionPool}.<br />
+ * Instances are handed out by {@link ConnectionPool#borrow()} and must be returned with {@link ConnectionPool#release(PooledConnection)}.<br />
+ * Each connection keeps a small LRU cache of prepared statements, keyed by their SQL.
+ * @author bitWolfy
+ *
+ */
+@Getter(AccessLevel.PUBLIC)
+public class PooledConnection {
+
+    private final Connection connection;
+    private long lastUsed;
+    private boolean broken;
+
+    @Getter(AccessLevel.NONE)
+    private final Map<String, PreparedStatement> statements;
+
+    /**
+     * <b>Default constructor</b><br />
+     * Wraps around the specified physical connection
+     * @param connection Physical connection
+     * @param cacheSize Maximum number of prepared statements to keep open
+     */
+    @SuppressWarnings("serial")
+    public PooledConnection(Connection connection, final int cacheSize) {
+        this.connection = connection;
+        this.lastUsed = System.currentTimeMillis();
+        this.broken = false;
+
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if(size() <= cacheSize) return false;
+                try { eldest.getValue().close(); }
+                catch (SQLException e) { }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns a prepared statement for the specified SQL query.<br />
+     * The statement is reused if it has been prepared on this connection before.
+     * @param sql Parameterized SQL query
+     * @return Prepared statement with its parameters cleared
+     * @throws SQLException Thrown if the statement could not be prepared
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if(statement != null) {
+            statement.clearParameters();
+            return statement;
+        }
+        statement = connection.prepareStatement(sql);
+        statements.put(sql, statement);
+        return statement;
+    }
+
+    /**
+     * Closes the prepared statement and removes it from the cache.<br />
+     * Used when a statement ended up in an unknown state after an error.
+     * @param sql Parameterized SQL query
+     */
+    public void discardStatement(String sql) {
+        PreparedStatement statement = statements.remove(sql);
+        if(statement == null) return;
+        try { statement.close(); }
+        catch (SQLException e) { }
+    }
+
+    /**
+     * Updates the time the connection was last used
+     */
+    public void touch() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Marks the connection as broken.<br />
+     * Broken connections are closed instead of being returned to the pool.
+     */
+    public void setBroken() {
+        broken = true;
+    }
+
+    /**
+     * Checks if the connection is still alive
+     * @param timeout Validation timeout, in seconds
+     * @return <b>true</b> if the connection is alive, <b>false</b> otherwise
+     */
+    public boolean isValid(int timeout) {
+        if(broken) return false;
+        try { return !connection.isClosed() && connection.isValid(timeout); }
+        catch (SQLException e) { return false; }
+    }
+
+    /**
+     * Closes the physical connection
+     */
+    public void close() {
+        for(PreparedStatement statement : statements.values()) {
+            try { statement.close(); }
+            catch (SQLException e) { }
+        }
+        statements.clear();
+        try { connection.close(); }
+        catch (Throwable t) { }
+    }
+
+}
@@ -21,18 +21,22 @@
 package com.wolvencraft.yasp.db;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import com.wolvencraft.yasp.db.tables.DBTable;
 import com.wolvencraft.yasp.settings.LocalConfiguration;
 import com.wolvencraft.yasp.util.ExceptionHandler;
 import com.wolvencraft.yasp.util.Message;
-import com.wolvencraft.yasp.util.Util;
 
 /**
  * Modular database query factory. Used to build and run SELECT, INSERT, and UPDATE queries.
@@ -59,25 +63,34 @@ public class Query {
         return instance.new DatabaseQuery(table.getColumnName());
     }
     
+    /**
+     * Returns a query that combines several single-value queries into one statement
+     * @return Combined query
+     */
+    public static CombinedQuery combine() {
+        return new CombinedQuery();
+    }
+    
     /**
      * Safely casts a Map to QueryResult
      * @param map Map to apply the cast to
      * @return <b>QueryResult</b> desired result
      */
     public static QueryResult toQueryResult(Map<String, String> map) {
-        return instance.new QueryResult(map);
+        return new QueryResult(map);
     }
     
     /**
      * Safely pushes data to the remote database. <br />
      * Wraps around the corresponding Database method and handles any errors that might occur in it.
-     * @param sql SQL query
+     * @param sql Parameterized SQL query
+     * @param parameters Query parameters, in order
      * @return <b>true</b> if the sync is successful, <b>false</b> otherwise
      */
-    private static boolean executeUpdate(String sql) {
+    private static boolean executeUpdate(String sql, List<Object> parameters) {
         try {
-            Message.debug(Level.FINEST, sql);
-            return Database.executeUpdate(sql);
+            Message.debug(Level.FINEST, sql + " " + parameters);
+            return Database.executeUpdate(sql, parameters);
         } catch (Throwable t) {
             Message.log(Level.SEVERE, "An error occurred while pushing data to the remote database.");
             Message.log(Level.SEVERE, t.getMessage());
@@ -86,27 +99,137 @@ public class Query {
         }
     }
     
+    /**
+     * Safely inserts a row into the remote database and returns its generated key.<br />
+     * Wraps around the corresponding Database method and handles any errors that might occur in it.
+     * @param sql Parameterized SQL query
+     * @param parameters Query parameters, in order
+     * @return Generated key, or <b>-1</b> if an error occurred
+     */
+    private static long executeInsert(String sql, List<Object> parameters) {
+        try {
+            Message.debug(Level.FINEST, sql + " " + parameters);
+            return Database.executeInsert(sql, parameters);
+        } catch (Throwable t) {
+            Message.log(Level.SEVERE, "An error occurred while pushing data to the remote database.");
+            Message.log(Level.SEVERE, t.getMessage());
+            if(LocalConfiguration.Debug.toBoolean()) ExceptionHandler.handle(t);
+            return -1;
+        }
+    }
+    
     /**
      * Safely returns the data from the remote server according to the SQL query.<br />
      * Wraps around the corresponding Database method and handles any errors that might occur in it.
-     * @param sql SQL query
+     * @param sql Parameterized SQL query
+     * @param parameters Query parameters, in order
      * @return Data from the remote database
      */
-    private static List<QueryResult> executeQuery(String sql) {
+    private static List<QueryResult> executeQuery(String sql, List<Object> parameters) {
         try {
-            Message.debug(Level.FINEST, sql);
-            return Database.executeQuery(sql);
+            Message.debug(Level.FINEST, sql + " " + parameters);
+            return Database.executeQuery(sql, parameters);
         } catch (Throwable t) {
             Message.log(Level.SEVERE, "An error occurred while fetching data from the remote database.");
             Message.log(Level.SEVERE, t.getMessage());
             if(LocalConfiguration.Debug.toBoolean()) ExceptionHandler.handle(t);
             return new ArrayList<QueryResult>();
         }
-    }    
+    }
+    
+    /**
+     * Safely streams the data from the remote server to the row handler.<br />
+     * Wraps around the corresponding Database method and handles any errors that might occur in it.
+     * @param sql Parameterized SQL query
+     * @param parameters Query parameters, in order
+     * @param handler Row handler
+     * @return Number of rows passed to the handler, or <b>-1</b> if an error occurred
+     */
+    private static long executeStream(String sql, List<Object> parameters, RowHandler handler) {
+        try {
+            Message.debug(Level.FINEST, sql + " " + parameters);
+            return Database.executeStream(sql, parameters, handler);
+        } catch (Throwable t) {
+            Message.log(Level.SEVERE, "An error occurred while fetching data from the remote database.");
+            Message.log(Level.SEVERE, t.getMessage());
+            if(LocalConfiguration.Debug.toBoolean()) ExceptionHandler.handle(t);
+            return -1;
+        }
+    }
+    
+    /**
+     * Inserts the rows described by the specified queries in as few round trips as possible.<br />
+     * Queries that produce the same SQL are grouped together and sent to the database as a single batch,
+     * split into chunks of the configured batch size. Each chunk is committed separately.
+     * @param queries INSERT queries, mapped to the objects they were built for
+     * @return Objects whose rows were successfully inserted
+     */
+    public static <K> Set<K> insertBatch(Map<K, DatabaseQuery> queries) {
+        Map<String, List<K>> keys = new LinkedHashMap<String, List<K>>();
+        Map<String, List<List<Object>>> rows = new HashMap<String, List<List<Object>>>();
+        
+        for(Entry<K, DatabaseQuery> entry : queries.entrySet()) {
+            List<Object> parameters = new ArrayList<Object>();
+            String sql = entry.getValue().buildInsert(parameters);
+            if(!keys.containsKey(sql)) {
+                keys.put(sql, new ArrayList<K>());
+                rows.put(sql, new ArrayList<List<Object>>());
+            }
+            keys.get(sql).add(entry.getKey());
+            rows.get(sql).add(parameters);
+        }
+        
+        int batchSize = Math.max(1, LocalConfiguration.DBBatchSize.toInteger());
+        Set<K> inserted = new HashSet<K>();
+        for(Entry<String, List<K>> group : keys.entrySet()) {
+            String sql = group.getKey();
+            List<K> groupKeys = group.getValue();
+            List<List<Object>> groupRows = rows.get(sql);
+            
+            for(int start = 0; start < groupRows.size(); start += batchSize) {
+                int end = Math.min(start + batchSize, groupRows.size());
+                if(executeBatch(sql, groupRows.subList(start, end))) inserted.addAll(groupKeys.subList(start, end));
+            }
+        }
+        return inserted;
+    }
     
+    /**
+     * Safely pushes a batch of rows to the remote database.<br />
+     * Wraps around the corresponding Database method and handles any errors that might occur in it.
+     * @param sql Parameterized SQL query
+     * @param rows Query parameters for each row
+     * @return <b>true</b> if the sync is successful, <b>false</b> otherwise
+     */
+    private static boolean executeBatch(String sql, List<List<Object>> rows) {
+        try {
+            Message.debug(Level.FINEST, sql + " x" + rows.size());
+            return Database.executeBatch(sql, rows);
+        } catch (Throwable t) {
+            Message.log(Level.SEVERE, "An error occurred while pushing data to the remote database.");
+            Message.log(Level.SEVERE, t.getMessage());
+            if(LocalConfiguration.Debug.toBoolean()) ExceptionHandler.handle(t);
+            return false;
+        }
+    }
     
     /**
-     * Represents a standard database query
+     * Converts a value into a statement parameter.<br />
+     * Numbers are passed on as they are, booleans are stored as 1 or 0, and everything else is stored as a string.
+     * @param value Value to convert
+     * @return Statement parameter
+     */
+    private static Object toParameter(Object value) {
+        if(value == null) return null;
+        if(value instanceof Number) return value;
+        if(value instanceof Boolean) return ((Boolean) value) ? 1 : 0;
+        return value.toString().replace("\u00A7", "&");
+    }
+    
+    
+    /**
+     * Represents a standard database query.<br />
+     * Queries are built as parameterized SQL, so that identical query shapes share the same prepared statement.
      * @author bitWolfy
      *
      */
@@ -115,8 +238,12 @@ public class Query {
         private DatabaseQuery instance;
         private String table;
         private List<String> columns;
-        private Map<Object, Object> values;
+        private Map<String, Object> values;
         private List<String> conditions;
+        private List<Object> conditionValues;
+        private Map<String, Object> keys;
+        private Set<String> increments;
+        private Set<String> maximums;
         
         /**
          * <b>Default constructor</b><br />
@@ -128,8 +255,12 @@ public class Query {
             this.instance = this;
             this.table = table;
             this.columns = new ArrayList<String>();
-            this.values = new HashMap<Object, Object>();
+            this.values = new LinkedHashMap<String, Object>();
             this.conditions = new ArrayList<String>();
+            this.conditionValues = new ArrayList<Object>();
+            this.keys = new LinkedHashMap<String, Object>();
+            this.increments = new HashSet<String>();
+            this.maximums = new HashSet<String>();
         }
         
         /**
@@ -172,7 +303,9 @@ public class Query {
          * @return Database query
          */
         public DatabaseQuery condition(String key, Object value) {
-            this.conditions.add("`" + key + "`='" + value.toString() + "'");
+            this.conditions.add("`" + key + "`=?");
+            this.conditionValues.add(value.toString());
+            this.keys.put(key, value.toString());
             return instance;
         }
         
@@ -184,9 +317,11 @@ public class Query {
          */
         public DatabaseQuery condition(DBTable column, String value) {
             if (value.equals("NULL")){
-             this.conditions.add("`" + column.getColumnName() + "` IS NULL");    
+                this.conditions.add("`" + column.getColumnName() + "` IS NULL");
             } else {
-             this.conditions.add("`" + column.getColumnName() + "`='" + value + "'");               
+                this.conditions.add("`" + column.getColumnName() + "`=?");
+                this.conditionValues.add(value);
+                this.keys.put(column.getColumnName(), value);
             }
 
             return instance;
@@ -199,7 +334,9 @@ public class Query {
          * @return Database query
          */
         public DatabaseQuery condition(DBTable column, Integer value) {
-            this.conditions.add("`" + column.getColumnName() + "`=" + value);
+            this.conditions.add("`" + column.getColumnName() + "`=?");
+            this.conditionValues.add(value);
+            this.keys.put(column.getColumnName(), value);
             return instance;
         }
 
@@ -210,7 +347,9 @@ public class Query {
          * @return Database query
          */
         public DatabaseQuery condition(DBTable column, Double value) {
-            this.conditions.add("`" + column.getColumnName() + "`=" + value);
+            this.conditions.add("`" + column.getColumnName() + "`=?");
+            this.conditionValues.add(value);
+            this.keys.put(column.getColumnName(), value);
             return instance;
         }
 
@@ -221,7 +360,9 @@ public class Query {
          * @return Database query
          */
         public DatabaseQuery condition(DBTable column, Long value) {
-            this.conditions.add("`" + column.getColumnName() + "`=" + value);
+            this.conditions.add("`" + column.getColumnName() + "`=?");
+            this.conditionValues.add(value);
+            this.keys.put(column.getColumnName(), value);
             return instance;
         }
 
@@ -232,13 +373,15 @@ public class Query {
          * @return Database query
          */
         public DatabaseQuery condition(DBTable column, Boolean value) {
-            if(value) this.conditions.add("`" + column.getColumnName() + "`=1");
-            else this.conditions.add("`" + column.getColumnName() + "`=0");
+            this.conditions.add("`" + column.getColumnName() + "`=?");
+            this.conditionValues.add(value ? 1 : 0);
+            this.keys.put(column.getColumnName(), value ? 1 : 0);
             return instance;
         }
 
         /**
-         * Applies a set of conditions to the query
+         * Applies a set of raw SQL conditions to the query.<br />
+         * The conditions are inserted into the query as they are, and are not parameterized.
          * @param list List of conditions
          * @return Database query
          */
@@ -287,7 +430,32 @@ public class Query {
          * @return Database query
          */
         public DatabaseQuery value(Map<Object, Object> values) {
-            this.values.putAll(values);
+            for(Entry<Object, Object> entry : values.entrySet()) this.values.put(entry.getKey().toString(), entry.getValue());
+            return instance;
+        }
+        
+        /**
+         * Adds a value that is added to the existing one instead of overwriting it.<br />
+         * If the row does not exist yet, the value is inserted as it is.
+         * @param column Column name
+         * @param delta Amount to add
+         * @return Database query
+         */
+        public DatabaseQuery increment(DBTable column, Number delta) {
+            this.values.put(column.getColumnName(), delta);
+            this.increments.add(column.getColumnName());
+            return instance;
+        }
+        
+        /**
+         * Adds a value that only overwrites the existing one if it is greater
+         * @param column Column name
+         * @param value Column value
+         * @return Database query
+         */
+        public DatabaseQuery maximum(DBTable column, Number value) {
+            this.values.put(column.getColumnName(), value);
+            this.maximums.add(column.getColumnName());
             return instance;
         }
         
@@ -297,7 +465,7 @@ public class Query {
          * @return Database query
          */
         public DatabaseQuery valueRaw(Map<DBTable, Object> values) {
-            this.values.putAll(values);
+            for(Entry<DBTable, Object> entry : values.entrySet()) this.values.put(entry.getKey().toString(), entry.getValue());
             return instance;
         }
         
@@ -315,26 +483,7 @@ public class Query {
          * @return <b>QueryResult</b> the result found or <b>null</b> if there isn't one.
          */
         public QueryResult select(int index) {
-            String sql = "SELECT ";
-            
-            String columnString = "";
-            if(instance.columns.isEmpty()) columnString = "*";
-            else {
-                for(String str : instance.columns) {
-                    if(!columnString.equals("")) columnString += ", ";
-                    columnString += "`" + str + "`";
-                }
-            }
-            sql += columnString + " FROM `" + LocalConfiguration.DBPrefix.toString() + table + "`";
-            
-            String conditionString = "";
-            for(String str : instance.conditions) {
-                if(!conditionString.equals("")) conditionString += " AND ";
-                conditionString += str;
-            }
-            if(!conditionString.equals("")) sql += " WHERE " + conditionString;
-            
-            try { return Query.executeQuery(sql + ";").get(index); }
+            try { return selectAll().get(index); }
             catch (NullPointerException ex) { return null; }
             catch (IndexOutOfBoundsException aiex) { return null; }
         }
@@ -345,26 +494,40 @@ public class Query {
          * @return List of results. Might be empty.
          */
         public List<QueryResult> selectAll() {
-            String sql = "SELECT ";
+            return Query.executeQuery(buildSelect(), conditionValues);
+        }
+        
+        /**
+         * Builds and runs the SELECT query, passing the results to the handler one row at a time.<br />
+         * The rows are streamed from the database instead of being loaded into memory all at once,
+         * which makes this method suitable for scanning very large tables.<br />
+         * The database connection is held until the scan is complete, so the handler should not
+         * run other queries or perform any other long operations.
+         * @param handler Row handler
+         * @return Number of rows passed to the handler, or <b>-1</b> if an error occurred
+         */
+        public long stream(RowHandler handler) {
+            return Query.executeStream(buildSelect(), conditionValues, handler);
+        }
+        
+        /**
+         * Builds the parameterized SELECT query
+         * @return Parameterized SQL query
+         */
+        private String buildSelect() {
+            StringBuilder sql = new StringBuilder("SELECT ");
             
-            String columnString = "";
-            if(instance.columns.isEmpty()) columnString = "*";
+            if(columns.isEmpty()) sql.append("*");
             else {
-                for(String str : instance.columns) {
-                    if(!columnString.equals("")) columnString += ", ";
-                    columnString += "`" + str + "`";
+                for(int i = 0; i < columns.size(); i++) {
+                    if(i > 0) sql.append(", ");
+                    sql.append("`").append(columns.get(i)).append("`");
                 }
             }
-            sql += columnString + " FROM `" + LocalConfiguration.DBPrefix.toString() + table + "`";
-            
-            String conditionString = "";
-            for(String str : instance.conditions) {
-                if(!conditionString.equals("")) conditionString += " AND ";
-                conditionString += str;
-            }
-            if(!conditionString.equals("")) sql += " WHERE " + conditionString;
+            sql.append(" FROM `").append(LocalConfiguration.DBPrefix.toString()).append(table).append("`");
+            appendConditions(sql);
             
-            return Query.executeQuery(sql + ";");
+            return sql.append(";").toString();
         }
         
         /**
@@ -380,26 +543,14 @@ public class Query {
          * @return <b>double</b> sum of rows in a specified column
          */
         public double sum() {
-            String sql = "SELECT sum(";
-            
-            String columnString = "";
-            if(instance.columns.isEmpty()) columnString = "*";
-            else {
-                for(String str : instance.columns) {
-                    if(!columnString.equals("")) columnString += ", ";
-                    else columnString += "`" + str + "`";
-                }
-            }
-            sql += columnString + ") as `temp` FROM `" + LocalConfiguration.DBPrefix.toString() + table + "`";
+            StringBuilder sql = new StringBuilder("SELECT sum(");
             
-            String conditionString = "";
-            for(String str : instance.conditions) {
-                if(!conditionString.equals("")) conditionString += " AND ";
-                conditionString += str;
-            }
-            if(!conditionString.equals("")) sql += " WHERE " + conditionString;
+            if(columns.isEmpty()) sql.append("*");
+            else sql.append("`").append(columns.get(0)).append("`");
+            sql.append(") as `temp` FROM `").append(LocalConfiguration.DBPrefix.toString()).append(table).append("`");
+            appendConditions(sql);
             
-            try { return Query.executeQuery(sql + ";").get(0).asDouble("temp"); }
+            try { return Query.executeQuery(sql.append(";").toString(), conditionValues).get(0).asDouble("temp"); }
             catch (Exception e) { return 0; }
         }
         
@@ -408,30 +559,47 @@ public class Query {
          * @return <b>true</b> if the value was successfully inserted, <b>false</b> if an error occurred
          */
         public boolean insert() {
-            String sql = "INSERT INTO `" + LocalConfiguration.DBPrefix.toString() + table + "` (";
-            
-            String fieldString = "";
-            String valueString = "";
-            Iterator<Entry<Object, Object>> it = instance.values.entrySet().iterator();
-            while (it.hasNext()) {
-                Map.Entry<Object, Object> pairs = (Entry<Object, Object>) it.next();
-                if(!fieldString.equals("")) fieldString += ", ";
-                if(!valueString.equals("")) valueString += ", ";
-                
-                fieldString += "`" + pairs.getKey().toString() + "`";
-                valueString += "'" + Util.parseString(pairs.getValue().toString()) + "'";
-                it.remove();
-            }
-            sql += fieldString + ") VALUES (" + valueString + ")";
+            List<Object> parameters = new ArrayList<Object>(values.size() + conditionValues.size());
+            String sql = buildInsert(parameters);
+            return executeUpdate(sql, parameters);
+        }
+        
+        /**
+         * Builds the INSERT query and writes it to the overflow spool instead of running it.<br />
+         * The row is sent to the database the next time the spool is replayed.
+         * @return <b>true</b> if the row was spilled, <b>false</b> if the overflow spool is not available
+         */
+        public boolean spill() {
+            List<Object> parameters = new ArrayList<Object>(values.size() + conditionValues.size());
+            String sql = buildInsert(parameters);
+            return Database.spillWrite(sql, Collections.singletonList(parameters));
+        }
+        
+        /**
+         * Builds the parameterized INSERT query
+         * @param parameters List to which the query parameters are added, in order
+         * @return Parameterized SQL query
+         */
+        private String buildInsert(List<Object> parameters) {
+            StringBuilder sql = new StringBuilder("INSERT INTO `").append(LocalConfiguration.DBPrefix.toString()).append(table).append("` (");
+            StringBuilder valueString = new StringBuilder();
             
-            String conditionString = "";
-            for(String str : instance.conditions) {
-                if(!conditionString.equals("")) conditionString += " AND ";
-                conditionString += str;
+            boolean first = true;
+            for(Entry<String, Object> entry : values.entrySet()) {
+                if(!first) {
+                    sql.append(", ");
+                    valueString.append(", ");
+                }
+                sql.append("`").append(entry.getKey()).append("`");
+                valueString.append("?");
+                parameters.add(toParameter(entry.getValue()));
+                first = false;
             }
-            if(!conditionString.equals("")) sql += " WHERE " + conditionString;
+            sql.append(") VALUES (").append(valueString).append(")");
+            appendConditions(sql);
+            parameters.addAll(conditionValues);
             
-            return executeUpdate(sql + ";");
+            return sql.append(";").toString();
         }
         
         /**
@@ -439,57 +607,136 @@ public class Query {
          * @return <b>true</b> if the value was successfully updated, <b>false</b> if an error occurred
          */
         public boolean update() {
-            String sql = "UPDATE `" + LocalConfiguration.DBPrefix.toString() + table + "`";
+            return update(false);
+        }
+        
+        /**
+         * Builds and runs the UPDATE query.
+         * Columns added with {@link #increment(DBTable, Number)} or {@link #maximum(DBTable, Number)} are always merged accordingly.
+         * @param merged If <b>false</b>, old values will be overwritten
+         * @return <b>true</b> if the value was successfully updated, <b>false</b> if an error occurred
+         */
+        public boolean update(boolean merged) {
+            List<Object> parameters = new ArrayList<Object>(values.size() + conditionValues.size());
+            StringBuilder sql = new StringBuilder("UPDATE `").append(LocalConfiguration.DBPrefix.toString()).append(table).append("` SET ");
             
-            String valueString = "";
-            Iterator<Entry<Object, Object>> it = instance.values.entrySet().iterator();
-            while (it.hasNext()) {
-                Map.Entry<Object, Object> pairs = (Entry<Object, Object>) it.next();
-                if(!valueString.equals("")) valueString += ", ";
-                
-                valueString += "`" + pairs.getKey().toString() + "`='" + Util.parseString(pairs.getValue().toString()) + "'";
-                it.remove();
+            for(Entry<String, Object> entry : values.entrySet()) {
+                if(!parameters.isEmpty()) sql.append(", ");
+                appendAssignment(sql, entry.getKey(), "?", merged);
+                parameters.add(toParameter(entry.getValue()));
             }
-            sql += " SET " + valueString;
+            appendConditions(sql);
+            parameters.addAll(conditionValues);
             
-            String conditionString = "";
-            for(String str : instance.conditions) {
-                if(!conditionString.equals("")) conditionString += " AND ";
-                conditionString += str;
+            return executeUpdate(sql.append(";").toString(), parameters);
+        }
+        
+        /**
+         * Builds and runs the INSERT ... ON DUPLICATE KEY UPDATE query
+         * @return <b>true</b> if the value was successfully inserted or updated, <b>false</b> if an error occurred
+         */
+        public boolean upsert() {
+            return upsert(false);
+        }
+        
+        /**
+         * Builds and runs the INSERT ... ON DUPLICATE KEY UPDATE query.<br />
+         * The conditions of the query are treated as the unique key of the row. If the row does not exist,
+         * it is inserted with the specified values; otherwise, the existing row is updated in the same statement.<br />
+         * Falls back to a plain UPDATE if any of the conditions is not a simple equality.<br />
+         * Columns added with {@link #increment(DBTable, Number)} or {@link #maximum(DBTable, Number)} are always merged accordingly.
+         * @param merged If <b>false</b>, old values will be overwritten. If <b>true</b>, values are added to the existing ones
+         * @return <b>true</b> if the value was successfully inserted or updated, <b>false</b> if an error occurred
+         */
+        public boolean upsert(boolean merged) {
+            if(keys.isEmpty() || keys.size() != conditions.size()) {
+                Message.debug(Level.FINEST, "Cannot upsert into " + table + " without a key; falling back to UPDATE");
+                return update(merged);
             }
-            if(!conditionString.equals("")) sql += " WHERE " + conditionString;
             
-            return executeUpdate(sql + ";");
+            List<Object> parameters = new ArrayList<Object>(keys.size() + values.size());
+            String sql = buildUpsert(parameters, merged, true);
+            return executeUpdate(sql, parameters);
         }
         
         /**
-         * Builds and runs the UPDATE query.
-         * @param merged If <b>false</b>, old values will be overwritten
-         * @return <b>true</b> if the value was successfully updated, <b>false</b> if an error occurred
+         * Builds and runs the INSERT ... ON DUPLICATE KEY UPDATE query, and returns the auto-increment ID of the row.<br />
+         * If the storage engine supports it, the ID of an existing row is handed back by the same statement
+         * through <code>LAST_INSERT_ID(column)</code>. Otherwise, it is looked up with a SELECT query on the same conditions.<br />
+         * The statement is always run right away, even if a flush plan is open on the current thread.
+         * @param idColumn Auto-increment column
+         * @return Row ID, or <b>-1</b> if an error occurred or the conditions are not a unique key
          */
-        public boolean update(boolean merged) {
-            if(!merged) return update();
-            String sql = "UPDATE `" + LocalConfiguration.DBPrefix.toString() + table + "`";
+        public long upsertId(DBTable idColumn) {
+            if(keys.isEmpty() || keys.size() != conditions.size()) return -1;
+            
+            String column = idColumn.getColumnName();
+            boolean returnsId = Database.getEngine().supportsInsertIdUpsert();
+            List<Object> parameters = new ArrayList<Object>(keys.size() + values.size());
+            String sql = buildUpsert(parameters, false, true);
+            if(returnsId) sql = sql.substring(0, sql.length() - 1) + ", `" + column + "` = LAST_INSERT_ID(`" + column + "`);";
+            
+            long id = Query.executeInsert(sql, parameters);
+            if(returnsId && id > 0) return id;
             
-            String valueString = "";
-            Iterator<Entry<Object, Object>> it = instance.values.entrySet().iterator();
-            while (it.hasNext()) {
-                Map.Entry<Object, Object> pairs = (Entry<Object, Object>) it.next();
-                if(!valueString.equals("")) valueString += ", ";
+            QueryResult row = column(column).select();
+            return row == null ? -1 : row.asLong(column);
+        }
+        
+        /**
+         * Builds and runs an INSERT query that leaves the existing row untouched if there already is one with the same key.<br />
+         * The conditions of the query are treated as the unique key of the row, just like in {@link #upsert(boolean)}.
+         * If any of the conditions is not a simple equality, the row is only inserted if the SELECT query finds nothing.
+         * @return <b>true</b> if the row was inserted, <b>false</b> if it already exists or an error occurred
+         */
+        public boolean insertIfAbsent() {
+            if(keys.isEmpty() || keys.size() != conditions.size()) return !exists() && insert();
+            
+            List<Object> parameters = new ArrayList<Object>(keys.size() + values.size());
+            String sql = buildUpsert(parameters, false, false);
+            return executeUpdate(sql, parameters);
+        }
+        
+        /**
+         * Builds the parameterized INSERT ... ON DUPLICATE KEY UPDATE query
+         * @param parameters List to which the query parameters are added, in order
+         * @param merged If <b>false</b>, old values will be overwritten. If <b>true</b>, values are added to the existing ones
+         * @param update If <b>false</b>, the existing row is left as it is
+         * @return Parameterized SQL query
+         */
+        private String buildUpsert(List<Object> parameters, boolean merged, boolean update) {
+            StringBuilder sql = new StringBuilder("INSERT INTO `").append(LocalConfiguration.DBPrefix.toString()).append(table).append("` (");
+            StringBuilder valueString = new StringBuilder();
+            StringBuilder updateString = new StringBuilder();
+            
+            for(Entry<String, Object> entry : keys.entrySet()) {
+                if(!parameters.isEmpty()) {
+                    sql.append(", ");
+                    valueString.append(", ");
+                }
+                sql.append("`").append(entry.getKey()).append("`");
+                valueString.append("?");
+                parameters.add(entry.getValue());
+            }
+            
+            for(Entry<String, Object> entry : values.entrySet()) {
+                if(keys.containsKey(entry.getKey())) continue;
+                sql.append(", `").append(entry.getKey()).append("`");
+                valueString.append(", ?");
+                parameters.add(toParameter(entry.getValue()));
                 
-                valueString += "`" + pairs.getKey().toString() + "` = `" + pairs.getKey().toString() + "` + '" + pairs.getValue().toString() + "'";
-                it.remove();
+                if(!update) continue;
+                if(updateString.length() > 0) updateString.append(", ");
+                appendAssignment(updateString, entry.getKey(), "VALUES(`" + entry.getKey() + "`)", merged);
             }
-            sql += " SET " + valueString;
             
-            String conditionString = "";
-            for(String str : instance.conditions) {
-                if(!conditionString.equals("")) conditionString += " AND ";
-                conditionString += str;
+            if(updateString.length() == 0) {
+                String key = keys.keySet().iterator().next();
+                updateString.append("`").append(key).append("` = `").append(key).append("`");
             }
-            if(!conditionString.equals("")) sql += " WHERE " + conditionString;
             
-            return executeUpdate(sql + ";");
+            sql.append(") VALUES (").append(valueString).append(") ON DUPLICATE KEY UPDATE ").append(updateString);
+            return sql.append(";").toString();
         }
         
         /**
@@ -498,30 +745,241 @@ public class Query {
          * @return <b>true</b> if the row was deleted, <b>false</b> if an error occurred
          */
         public boolean delete() {
-            String sql = "DELETE FROM `" + LocalConfiguration.DBPrefix.toString() + table + "`";
+            StringBuilder sql = new StringBuilder("DELETE FROM `").append(LocalConfiguration.DBPrefix.toString()).append(table).append("`");
+            appendConditions(sql);
             
-            String conditionString = "";
-            for(String str : instance.conditions) {
-                if(!conditionString.equals("")) conditionString += " AND ";
-                conditionString += str;
+            return executeUpdate(sql.append(";").toString(), conditionValues);
+        }
+        
+        /**
+         * Runs the SELECT query on the database executor.<br />
+         * The query must not be modified after this method is called.
+         * @return Future holding the first result found, or <b>null</b> if there isn't one
+         */
+        public ListenableFuture<QueryResult> selectAsync() {
+            return DatabaseExecutor.submit(new Callable<QueryResult>() {
+                @Override
+                public QueryResult call() { return select(); }
+            });
+        }
+        
+        /**
+         * Runs the SELECT query on the database executor.<br />
+         * The query must not be modified after this method is called.
+         * @return Future holding the list of results
+         */
+        public ListenableFuture<List<QueryResult>> selectAllAsync() {
+            return DatabaseExecutor.submit(new Callable<List<QueryResult>>() {
+                @Override
+                public List<QueryResult> call() { return selectAll(); }
+            });
+        }
+        
+        /**
+         * Checks if the query will yield any results on the database executor
+         * @return Future holding <b>true</b> if the query has any results, <b>false</b> if it is empty
+         */
+        public ListenableFuture<Boolean> existsAsync() {
+            return DatabaseExecutor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() { return exists(); }
+            });
+        }
+        
+        /**
+         * Calculates the sum of the rows in the specified column on the database executor
+         * @return Future holding the sum of rows in a specified column
+         */
+        public ListenableFuture<Double> sumAsync() {
+            return DatabaseExecutor.submit(new Callable<Double>() {
+                @Override
+                public Double call() { return sum(); }
+            });
+        }
+        
+        /**
+         * Runs the INSERT query on the database executor
+         * @return Future holding <b>true</b> if the value was successfully inserted, <b>false</b> if an error occurred
+         */
+        public ListenableFuture<Boolean> insertAsync() {
+            return DatabaseExecutor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() { return insert(); }
+            });
+        }
+        
+        /**
+         * Runs the UPDATE query on the database executor
+         * @param merged If <b>false</b>, old values will be overwritten
+         * @return Future holding <b>true</b> if the value was successfully updated, <b>false</b> if an error occurred
+         */
+        public ListenableFuture<Boolean> updateAsync(final boolean merged) {
+            return DatabaseExecutor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() { return update(merged); }
+            });
+        }
+        
+        /**
+         * Runs the INSERT ... ON DUPLICATE KEY UPDATE query on the database executor
+         * @param merged If <b>false</b>, old values will be overwritten. If <b>true</b>, values are added to the existing ones
+         * @return Future holding <b>true</b> if the value was successfully inserted or updated, <b>false</b> if an error occurred
+         */
+        public ListenableFuture<Boolean> upsertAsync(final boolean merged) {
+            return DatabaseExecutor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() { return upsert(merged); }
+            });
+        }
+        
+        /**
+         * Appends the assignment of a new value to the column, merging it with the old one if necessary
+         * @param sql Query to append the assignment to
+         * @param column Column name
+         * @param value New value, or the expression that evaluates to it
+         * @param merged If <b>true</b>, the value is added to the existing one
+         */
+        private void appendAssignment(StringBuilder sql, String column, String value, boolean merged) {
+            sql.append("`").append(column).append("` = ");
+            if(maximums.contains(column)) {
+                sql.append("GREATEST(`").append(column).append("`, ").append(value).append(")");
+                return;
+            }
+            if(merged || increments.contains(column)) sql.append("`").append(column).append("` + ");
+            sql.append(value);
+        }
+        
+        /**
+         * Appends the WHERE clause to the query, if there are any conditions
+         * @param sql Query to append the clause to
+         */
+        private void appendConditions(StringBuilder sql) {
+            for(int i = 0; i < conditions.size(); i++) {
+                sql.append(i == 0 ? " WHERE " : " AND ");
+                sql.append(conditions.get(i));
             }
-            if(!conditionString.equals("")) sql += " WHERE " + conditionString;
+        }
+        
+        /**
+         * Builds the query as a scalar subquery that returns the first selected column of the first row,
+         * or the sum of that column over all rows
+         * @param parameters List to which the query parameters are added, in order
+         * @param sum If <b>true</b>, the sum of the column is returned; the sum of no rows is 0
+         * @return Parameterized SQL subquery
+         */
+        private String buildSubquery(List<Object> parameters, boolean sum) {
+            if(columns.isEmpty()) throw new IllegalStateException("A subquery on " + table + " must select a column");
+            String column = "`" + columns.get(0) + "`";
             
-            return executeUpdate(sql + ";");
+            StringBuilder sql = new StringBuilder("(SELECT ");
+            if(sum) sql.append("COALESCE(SUM(").append(column).append("), 0)");
+            else sql.append(column);
+            sql.append(" FROM `").append(LocalConfiguration.DBPrefix.toString()).append(table).append("`");
+            appendConditions(sql);
+            parameters.addAll(conditionValues);
+            if(!sum) sql.append(" LIMIT 1");
+            
+            return sql.append(")").toString();
+        }
+        
+    }
+    
+    /**
+     * Combines several single-value queries into one SELECT statement.<br />
+     * Each query becomes a scalar subquery with its own label, so that values from many tables are fetched
+     * in a single round trip. The values are returned as one row, and can be read by their labels.
+     * @author bitWolfy
+     *
+     */
+    public static class CombinedQuery {
+        
+        private final List<String> labels;
+        private final List<String> subqueries;
+        private final List<Object> parameters;
+        
+        /**
+         * <b>Default constructor</b><br />
+         * Creates an empty combined query. It is recommended to use the combine() method in the Query class.
+         */
+        public CombinedQuery() {
+            labels = new ArrayList<String>();
+            subqueries = new ArrayList<String>();
+            parameters = new ArrayList<Object>();
+        }
+        
+        /**
+         * Adds a query that returns the first column it selects, from the first row it finds
+         * @param label Label of the value
+         * @param query Query that selects a single column
+         * @return Combined query
+         */
+        public CombinedQuery value(String label, DatabaseQuery query) {
+            labels.add(label);
+            subqueries.add(query.buildSubquery(parameters, false));
+            return this;
+        }
+        
+        /**
+         * Adds a query that returns the sum of the first column it selects
+         * @param label Label of the value
+         * @param query Query that selects a single column
+         * @return Combined query
+         */
+        public CombinedQuery sum(String label, DatabaseQuery query) {
+            labels.add(label);
+            subqueries.add(query.buildSubquery(parameters, true));
+            return this;
+        }
+        
+        /**
+         * Builds and runs the combined query
+         * @return <b>QueryResult</b> with a value for every label, or <b>null</b> if an error occurred
+         */
+        public QueryResult select() {
+            if(labels.isEmpty()) return null;
+            
+            StringBuilder sql = new StringBuilder("SELECT ");
+            for(int i = 0; i < labels.size(); i++) {
+                if(i > 0) sql.append(", ");
+                sql.append(subqueries.get(i)).append(" AS `").append(labels.get(i)).append("`");
+            }
+            
+            List<QueryResult> result = Query.executeQuery(sql.append(";").toString(), parameters);
+            return result.isEmpty() ? null : result.get(0);
         }
         
     }
     
     
     /**
-     * Represents the result of a SQL query to the database.<br />
-     * This class wraps around a Map&lt;String, String&gt;, in which the key represents the column name,
-     * and the value represents the value corresponding to the specified column.<br />
+     * Receives the rows of a streamed query, one at a time
+     * @author bitWolfy
+     *
+     */
+    public interface RowHandler {
+        
+        /**
+         * Handles a single row of the result.<br />
+         * The row object is reused, and must not be stored past the end of this method.
+         * @param row Current row
+         * @return <b>true</b> to continue reading, <b>false</b> to stop
+         */
+        public boolean handle(QueryResult row);
+        
+    }
+    
+    
+    /**
+     * Represents a single row of the result of a SQL query to the database.<br />
+     * This class is a view into a {@link QueryResultSet}, which stores the values of each column in a typed array.
+     * Values can be looked up either by the column name, or by the column index.<br />
      * This class exists to prevent extremely confusing lists of maps, which can be quite a handful.
      * @author bitWolfy
      *
      */
-    public class QueryResult {
+    public static class QueryResult {
+        private final QueryResultSet table;
+        private final int row;
         private Map<String, String> fields;
         
         /**
@@ -530,7 +988,38 @@ public class Query {
          * @param fields Column-value pairs
          */
         public QueryResult(Map<String, String> fields) {
-            this.fields = fields;
+            this(QueryResultSet.fromMap(fields), 0);
+        }
+        
+        /**
+         * <b>Constructor.</b><br />
+         * Creates a new view into the specified row of the result set
+         * @param table Result set
+         * @param row Row index
+         */
+        public QueryResult(QueryResultSet table, int row) {
+            this.table = table;
+            this.row = row;
+            this.fields = null;
+        }
+        
+        /**
+         * Returns the index of the column with the specified name
+         * @param column Column name
+         * @return Column index, or <b>-1</b> if there is no such column
+         */
+        public int indexOf(String column) {
+            return table.indexOf(column);
+        }
+        
+        /**
+         * Returns the value of the specified column.
+         * @param column Column index, starting at 0
+         * @return <b>String</b> The value of the specified column, or <b>null</b> if there isn't one.
+         */
+        public String asString(int column) {
+            if(column < 0) return null;
+            return table.getString(row, column);
         }
         
         /**
@@ -539,7 +1028,7 @@ public class Query {
          * @return <b>String</b> The value of the specified column, or <b>null</b> if there isn't one.
          */
         public String asString(String column) {
-            return fields.get(column.toString());
+            return asString(table.indexOf(column));
         }
         
         /**
@@ -551,85 +1040,129 @@ public class Query {
             return asString(column.getColumnName());
         }
         
+        /**
+         * Returns the value of the specified column.
+         * @param column Column index, starting at 0
+         * @return <b>boolean</b> The value of the specified column, or <b>false</b> if there isn't one.
+         */
+        public boolean asBoolean(int column) {
+            if(column < 0) return false;
+            return "1".equals(table.getString(row, column));
+        }
+        
         /**
          * Returns the value of the specified column.
          * @param column Column name
-         * @return <b>boolean</b> The value of the specified column, or <b>null</b> if there isn't one.
+         * @return <b>boolean</b> The value of the specified column, or <b>false</b> if there isn't one.
          */
         public boolean asBoolean(String column) {
-            return fields.get(column).equalsIgnoreCase("1");
+            return asBoolean(table.indexOf(column));
         }
         
         /**
          * Returns the value of the specified column.
          * @param column Column name
-         * @return <b>boolean</b> The value of the specified column, or <b>null</b> if there isn't one.
+         * @return <b>boolean</b> The value of the specified column, or <b>false</b> if there isn't one.
          */
         public boolean asBoolean(DBTable column) {
             return asBoolean(column.getColumnName());
         }
         
+        /**
+         * Returns the value of the specified column.
+         * @param column Column index, starting at 0
+         * @return <b>int</b> The value of the specified column, or <b>-1</b> if there isn't one.
+         */
+        public int asInt(int column) {
+            if(column < 0) return -1;
+            return (int) table.getLong(row, column);
+        }
+        
         /**
          * Returns the value of the specified column.
          * @param column Column name
-         * @return <b>int</b> The value of the specified column, or <b>null</b> if there isn't one.
+         * @return <b>int</b> The value of the specified column, or <b>-1</b> if there isn't one.
          */
         public int asInt(String column) {
-            try { return Integer.parseInt(fields.get(column)); }
-            catch (NumberFormatException e) { return -1; }
+            return asInt(table.indexOf(column));
         }
+        
         /**
          * Returns the value of the specified column.
          * @param column Column name
-         * @return <b>int</b> The value of the specified column, or <b>null</b> if there isn't one.
+         * @return <b>int</b> The value of the specified column, or <b>-1</b> if there isn't one.
          */
         public int asInt(DBTable column) {
             return asInt(column.getColumnName());
         }
         
+        /**
+         * Returns the value of the specified column.
+         * @param column Column index, starting at 0
+         * @return <b>long</b> The value of the specified column, or <b>-1</b> if there isn't one.
+         */
+        public long asLong(int column) {
+            if(column < 0) return -1;
+            return table.getLong(row, column);
+        }
+        
         /**
          * Returns the value of the specified column.
          * @param column Column name
-         * @return <b>long</b> The value of the specified column, or <b>null</b> if there isn't one.
+         * @return <b>long</b> The value of the specified column, or <b>-1</b> if there isn't one.
          */
         public long asLong(String column) {
-            try { return Long.parseLong(fields.get(column)); }
-            catch (NumberFormatException e) { return -1; }
+            return asLong(table.indexOf(column));
         }
         
         /**
          * Returns the value of the specified column.
          * @param column Column name
-         * @return <b>long</b> The value of the specified column, or <b>null</b> if there isn't one.
+         * @return <b>long</b> The value of the specified column, or <b>-1</b> if there isn't one.
          */
         public long asLong(DBTable column) {
             return asLong(column.getColumnName());
         }
         
+        /**
+         * Returns the value of the specified column.
+         * @param column Column index, starting at 0
+         * @return <b>double</b> The value of the specified column, or <b>-1</b> if there isn't one.
+         */
+        public double asDouble(int column) {
+            if(column < 0) return -1;
+            return table.getDouble(row, column);
+        }
+        
         /**
          * Returns the raw value of the specified column.
          * @param column Column name
-         * @return <b>double</b> The value of the specified column, or <b>null</b> if there isn't one.
+         * @return <b>double</b> The value of the specified column, or <b>-1</b> if there isn't one.
          */
         public double asDouble(String column) {
-            try { return Double.parseDouble(fields.get(column)); }
-            catch (NumberFormatException e) { return -1; }
+            return asDouble(table.indexOf(column));
         }
         
         /**
          * Returns the value of the specified column.
          * @param column Column name
-         * @return <b>double</b> The value of the specified column, or <b>null</b> if there isn't one.
+         * @return <b>double</b> The value of the specified column, or <b>-1</b> if there isn't one.
          */
         public double asDouble(DBTable column) {
             return asDouble(column.getColumnName());
         }
         
         /**
-         * Returns all values in the QueryResult
+         * Returns all values in the QueryResult.<br />
+         * The map is built on the first call, so it should be avoided in performance-sensitive code.
          * @return Column values
          */
         public Map<String, String> asMap() {
+            if(fields != null) return fields;
+            fields = new LinkedHashMap<String, String>();
+            for(int i = 0; i < table.getColumnCount(); i++) {
+                fields.put(table.getColumnLabel(i), table.getString(row, i));
+            }
             return fields;
         }
     }
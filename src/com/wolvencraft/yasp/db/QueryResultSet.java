@@ -0,0 +1,347 @@
+/*
+ * QueryResultSet.java
+ *
+ * Statistics
+ * Copyright (C) 2013 bitWolfy <http://www.wolvencraft.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.wolvencraft.yasp.db;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import com.wolvencraft.yasp.db.Query.QueryResult;
+
+/**
+ * Column-oriented storage for the rows returned by a SQL query.<br />
+ * The result set metadata is resolved once; integer and floating-point columns are stored in primitive arrays,
+ * and everything else is stored as strings. Rows are exposed as lightweight {@link QueryResult} views.<br />
+ * Fixed-point columns, such as the sums calculated by the database, are kept as the text returned by the driver,
+ * so that they do not lose precision; they are only converted when they are read as numbers.
+ * @author bitWolfy
+ *
+ */
+public class QueryResultSet extends AbstractList<QueryResult> implements RandomAccess {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final String[] labels;
+    private final Map<String, Integer> index;
+    private final ColumnType[] types;
+
+    private final long[][] longs;
+    private final double[][] doubles;
+    private final String[][] strings;
+    private final BitSet[] nulls;
+
+    private int rows;
+
+    /**
+     * <b>Constructor</b><br />
+     * Creates an empty result set with the specified columns
+     * @param labels Column labels
+     * @param types Column types
+     */
+    private QueryResultSet(String[] labels, ColumnType[] types) {
+        this.labels = labels;
+        this.types = types;
+        this.index = new HashMap<String, Integer>(labels.length * 2);
+        for(int i = labels.length - 1; i >= 0; i--) index.put(labels[i], i);
+
+        this.longs = new long[labels.length][];
+        this.doubles = new double[labels.length][];
+        this.strings = new String[labels.length][];
+        this.nulls = new BitSet[labels.length];
+        for(int i = 0; i < labels.length; i++) {
+            switch(types[i]) {
+                case Integer:
+                    longs[i] = new long[INITIAL_CAPACITY];
+                    break;
+                case Decimal:
+                    doubles[i] = new double[INITIAL_CAPACITY];
+                    break;
+                default:
+                    strings[i] = new String[INITIAL_CAPACITY];
+                    break;
+            }
+            nulls[i] = new BitSet();
+        }
+        this.rows = 0;
+    }
+
+    /**
+     * Reads all remaining rows from the JDBC result set
+     * @param rs Result set to read
+     * @return Result set contents
+     * @throws SQLException Thrown if the rows could not be read
+     */
+    public static QueryResultSet read(ResultSet rs) throws SQLException {
+        QueryResultSet result = forMetaData(rs.getMetaData());
+        while(rs.next()) result.readRow(rs);
+        return result;
+    }
+
+    /**
+     * Creates an empty result set with the columns described by the metadata
+     * @param meta Result set metadata
+     * @return Empty result set
+     * @throws SQLException Thrown if the metadata could not be read
+     */
+    static QueryResultSet forMetaData(ResultSetMetaData meta) throws SQLException {
+        int columnCount = meta.getColumnCount();
+        String[] labels = new String[columnCount];
+        ColumnType[] types = new ColumnType[columnCount];
+        for(int i = 0; i < columnCount; i++) {
+            labels[i] = meta.getColumnLabel(i + 1);
+            types[i] = ColumnType.get(meta.getColumnType(i + 1));
+        }
+
+        QueryResultSet result = new QueryResultSet(labels, types);
+        for(int i = 0; i < columnCount; i++) {
+            String name = meta.getColumnName(i + 1);
+            if(name != null && !result.index.containsKey(name)) result.index.put(name, i);
+        }
+        return result;
+    }
+
+    /**
+     * Creates a single-row result set from a map of column-value pairs
+     * @param fields Column-value pairs
+     * @return Result set
+     */
+    public static QueryResultSet fromMap(Map<String, String> fields) {
+        String[] labels = fields.keySet().toArray(new String[fields.size()]);
+        ColumnType[] types = new ColumnType[labels.length];
+        Arrays.fill(types, ColumnType.Text);
+
+        QueryResultSet result = new QueryResultSet(labels, types);
+        for(int i = 0; i < labels.length; i++) {
+            String value = fields.get(labels[i]);
+            if(value == null) result.nulls[i].set(0);
+            else result.strings[i][0] = value;
+        }
+        result.rows = 1;
+        return result;
+    }
+
+    /**
+     * Copies the current row of the JDBC result set into the column arrays
+     * @param rs Result set positioned on a row
+     * @throws SQLException Thrown if the row could not be read
+     */
+    void readRow(ResultSet rs) throws SQLException {
+        ensureCapacity(rows + 1);
+        for(int i = 0; i < labels.length; i++) {
+            switch(types[i]) {
+                case Integer:
+                    longs[i][rows] = rs.getLong(i + 1);
+                    break;
+                case Decimal:
+                    doubles[i][rows] = rs.getDouble(i + 1);
+                    break;
+                default:
+                    strings[i][rows] = rs.getString(i + 1);
+                    break;
+            }
+            if(rs.wasNull()) nulls[i].set(rows);
+        }
+        rows++;
+    }
+
+    /**
+     * Removes all rows from the result set, keeping the column arrays for reuse
+     */
+    void clearRows() {
+        for(int i = 0; i < labels.length; i++) {
+            nulls[i].clear();
+            if(strings[i] != null) Arrays.fill(strings[i], 0, rows, null);
+        }
+        rows = 0;
+    }
+
+    /**
+     * Grows the column arrays to fit the specified number of rows
+     * @param capacity Required number of rows
+     */
+    private void ensureCapacity(int capacity) {
+        for(int i = 0; i < labels.length; i++) {
+            switch(types[i]) {
+                case Integer:
+                    if(longs[i].length < capacity) longs[i] = Arrays.copyOf(longs[i], longs[i].length * 2);
+                    break;
+                case Decimal:
+                    if(doubles[i].length < capacity) doubles[i] = Arrays.copyOf(doubles[i], doubles[i].length * 2);
+                    break;
+                default:
+                    if(strings[i].length < capacity) strings[i] = Arrays.copyOf(strings[i], strings[i].length * 2);
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public QueryResult get(int row) {
+        if(row < 0 || row >= rows) throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + rows);
+        return new QueryResult(this, row);
+    }
+
+    @Override
+    public int size() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of columns in the result set
+     * @return Number of columns
+     */
+    public int getColumnCount() {
+        return labels.length;
+    }
+
+    /**
+     * Returns the label of the column with the specified index
+     * @param column Column index, starting at 0
+     * @return Column label
+     */
+    public String getColumnLabel(int column) {
+        return labels[column];
+    }
+
+    /**
+     * Returns the index of the column with the specified label or name
+     * @param column Column label
+     * @return Column index, or <b>-1</b> if there is no such column
+     */
+    public int indexOf(String column) {
+        Integer i = index.get(column);
+        return i == null ? -1 : i.intValue();
+    }
+
+    /**
+     * Checks if the value in the specified cell is SQL <code>NULL</code>
+     * @param row Row index
+     * @param column Column index
+     * @return <b>true</b> if the value is null, <b>false</b> otherwise
+     */
+    public boolean isNull(int row, int column) {
+        return nulls[column].get(row);
+    }
+
+    /**
+     * Returns the value of the cell as a long
+     * @param row Row index
+     * @param column Column index
+     * @return Cell value, or <b>-1</b> if the value is null or not a number
+     */
+    public long getLong(int row, int column) {
+        if(isNull(row, column)) return -1;
+        switch(types[column]) {
+            case Integer:
+                return longs[column][row];
+            case Decimal:
+                return (long) doubles[column][row];
+            default:
+                String value = strings[column][row];
+                try { return Long.parseLong(value); }
+                catch (NumberFormatException e) { }
+                try { return new BigDecimal(value).longValue(); }
+                catch (NumberFormatException e) { return -1; }
+        }
+    }
+
+    /**
+     * Returns the value of the cell as a double
+     * @param row Row index
+     * @param column Column index
+     * @return Cell value, or <b>-1</b> if the value is null or not a number
+     */
+    public double getDouble(int row, int column) {
+        if(isNull(row, column)) return -1;
+        switch(types[column]) {
+            case Integer:
+                return longs[column][row];
+            case Decimal:
+                return doubles[column][row];
+            default:
+                try { return Double.parseDouble(strings[column][row]); }
+                catch (NumberFormatException e) { return -1; }
+        }
+    }
+
+    /**
+     * Returns the value of the cell as a string
+     * @param row Row index
+     * @param column Column index
+     * @return Cell value, or <b>null</b> if the value is null
+     */
+    public String getString(int row, int column) {
+        if(isNull(row, column)) return null;
+        switch(types[column]) {
+            case Integer:
+                return Long.toString(longs[column][row]);
+            case Decimal:
+                double value = doubles[column][row];
+                if(value == Math.rint(value) && Math.abs(value) < 1e15) return Long.toString((long) value);
+                return Double.toString(value);
+            default:
+                return strings[column][row];
+        }
+    }
+
+    /**
+     * Represents the way values of a column are stored
+     * @author bitWolfy
+     *
+     */
+    private enum ColumnType {
+        Integer,
+        Decimal,
+        Text;
+
+        /**
+         * Returns the storage type for the specified SQL type
+         * @param sqlType SQL type from {@link java.sql.Types}
+         * @return Storage type
+         */
+        public static ColumnType get(int sqlType) {
+            switch(sqlType) {
+                case Types.BIT:
+                case Types.BOOLEAN:
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                case Types.BIGINT:
+                    return Integer;
+                case Types.REAL:
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                    return Decimal;
+                default:
+                    return Text;
+            }
+        }
+    }
+
+}
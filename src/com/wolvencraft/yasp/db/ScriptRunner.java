@@ -42,6 +42,7 @@ import java.util.logging.Level;
 
 import org.apache.commons.lang.StringUtils;
 
+import com.wolvencraft.yasp.db.engine.StorageEngine;
 import com.wolvencraft.yasp.exceptions.RuntimeSQLException;
 import com.wolvencraft.yasp.settings.LocalConfiguration;
 import com.wolvencraft.yasp.util.Message;
@@ -59,17 +60,28 @@ public class ScriptRunner {
     private static final String DEFAULT_DELIMITER = ";";
 
     private Connection connection;
+    private final boolean pooled;
 
     private String delimiter = ScriptRunner.DEFAULT_DELIMITER;
     private boolean fullLineDelimiter = false;
     
+    /**
+     * <b>Default constructor</b><br />
+     * Creates a new ScriptRunner instance that borrows a connection from the pool for every script
+     */
+    public ScriptRunner() {
+        this.connection = null;
+        this.pooled = true;
+    }
+    
     /**
      * <b>Constructor</b><br />
-     * Creates a new ScriptRunner instance
+     * Creates a new ScriptRunner instance that runs all scripts on the specified connection
      * @param connection Database connection instance
      */
     public ScriptRunner(Connection connection) {
         this.connection = connection;
+        this.pooled = false;
     }
     
     /**
@@ -96,6 +108,13 @@ public class ScriptRunner {
     public void runScript(Reader reader) throws RuntimeSQLException {
         Message.log(Level.FINER, "Executing a database script");
 
+        PooledConnection pooledConnection = null;
+        if(pooled) {
+            try { pooledConnection = Database.getPool().borrow(); }
+            catch (SQLException e) { throw new RuntimeSQLException("Could not borrow a database connection. Cause: " + e, e); }
+            connection = pooledConnection.getConnection();
+        }
+
         try {
             StringBuilder command = new StringBuilder();
             try {
@@ -120,13 +139,21 @@ public class ScriptRunner {
                 throw new RuntimeSQLException(message, e);
             }
         }
-        finally { this.rollbackConnection(); }
+        finally {
+            this.rollbackConnection();
+            if(pooled) {
+                Database.getPool().release(pooledConnection);
+                connection = null;
+            }
+        }
     }
     
     /**
-     * Closes the database connection
+     * Closes the database connection.<br />
+     * Pooled connections are returned to the pool instead, so this has no effect on them.
      */
     public void closeConnection() {
+        if(pooled || connection == null) return;
         try { this.connection.close(); }
         catch (Exception e) { }
     }
@@ -203,16 +230,21 @@ public class ScriptRunner {
     }
     
     /**
-     * Executes the specified command
+     * Executes the specified command.<br />
+     * The command is translated to the dialect of the current storage engine first, and skipped if the engine does not support it.
      * @param command Command to execute
      * @throws SQLException
      * @throws UnsupportedEncodingException
      */
     private void executeStatement(String command) throws SQLException, UnsupportedEncodingException {
-        Statement statement = this.connection.createStatement();
         String sql = command;
         sql = sql.replaceAll("\r\n", "\n");
         
+        StorageEngine engine = Database.getEngine();
+        if(engine != null) sql = engine.translate(sql);
+        if(sql == null) return;
+        
+        Statement statement = this.connection.createStatement();
         statement.execute(sql);
         
         try { statement.close(); }
@@ -0,0 +1,464 @@
+/*
+ * WriteSpool.java
+ *
+ * Statistics
+ * Copyright (C) 2013 bitWolfy <http://www.wolvencraft.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.wolvencraft.yasp.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+import com.wolvencraft.yasp.settings.LocalConfiguration;
+import com.wolvencraft.yasp.util.ExceptionHandler;
+import com.wolvencraft.yasp.util.Message;
+
+/**
+ * An append-only, on-disk spool for queries that could not be sent to the database.<br />
+ * Queries are written to memory-mapped segment files in the order they were issued. While the spool
+ * contains any queries, new writes are appended to it as well, so that they are never applied out of order.
+ * Once the database is reachable again, the segments are replayed in batches and deleted.<br />
+ * Each segment starts with a header that stores the offset of the first query that has not been replayed yet,
+ * so a replay that is interrupted by a crash or another outage resumes where it left off.<br />
+ * The same format is used for the entries that overflow the event buffers; these are kept in a spool of their own,
+ * so that they never hold up the regular writes.
+ * @author bitWolfy
+ *
+ */
+public class WriteSpool {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String EXTENSION = ".seg";
+
+    private static final int SEGMENT_SIZE = 4 * 1024 * 1024;
+    private static final int MAGIC = 0x59535031;
+    private static final int READ_OFFSET = 4;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_LONG = 1;
+    private static final byte TYPE_DOUBLE = 2;
+    private static final byte TYPE_STRING = 3;
+
+    private final File folder;
+    private final boolean outage;
+    private final LinkedList<File> sealed;
+    private final AtomicBoolean replaying;
+
+    private File activeFile;
+    private MappedByteBuffer active;
+    private long nextSegment;
+    private volatile boolean pending;
+
+    /**
+     * <b>Default constructor</b><br />
+     * Opens the spool in the specified folder. Segments left over from a previous session are queued for replay.
+     * @param folder Folder to store the segment files in
+     * @param outage <b>true</b> if the spool holds the writes made while the database is unreachable,
+     * <b>false</b> if it holds the entries that overflowed the event buffers
+     */
+    public WriteSpool(File folder, boolean outage) {
+        this.folder = folder;
+        this.outage = outage;
+        this.sealed = new LinkedList<File>();
+        this.replaying = new AtomicBoolean(false);
+        this.activeFile = null;
+        this.active = null;
+        this.nextSegment = 0;
+
+        if(!folder.exists()) folder.mkdirs();
+        File[] files = folder.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) { return name.endsWith(EXTENSION); }
+        });
+        if(files == null) files = new File[0];
+        Arrays.sort(files);
+
+        for(File file : files) {
+            String name = file.getName();
+            try { nextSegment = Math.max(nextSegment, Long.parseLong(name.substring(0, name.length() - EXTENSION.length())) + 1); }
+            catch (NumberFormatException ex) { continue; }
+
+            if(hasRecords(file)) sealed.add(file);
+            else if(!file.delete()) file.deleteOnExit();
+        }
+
+        this.pending = !sealed.isEmpty();
+        if(pending) Message.log(sealed.size() + " spooled segment(s) found; they will be sent to the database shortly");
+    }
+
+    /**
+     * Checks if there are any queries waiting to be replayed
+     * @return <b>true</b> if the spool is not empty, <b>false</b> otherwise
+     */
+    public boolean isPending() {
+        return pending;
+    }
+
+    /**
+     * Appends the queries to the spool, but only if it already contains other queries.<br />
+     * Used to keep the writes in order while the spool is being drained.
+     * @param sql Parameterized SQL query
+     * @param rows Query parameters for each row
+     * @return <b>true</b> if the queries were spooled, <b>false</b> if they should be sent to the database
+     */
+    public synchronized boolean offer(String sql, List<List<Object>> rows) {
+        if(!pending) return false;
+        return append(sql, rows);
+    }
+
+    /**
+     * Appends the queries to the spool
+     * @param sql Parameterized SQL query
+     * @param rows Query parameters for each row
+     * @return <b>true</b> if the queries were spooled, <b>false</b> if an error occurred
+     */
+    public synchronized boolean append(String sql, List<List<Object>> rows) {
+        try {
+            for(List<Object> row : rows) {
+                byte[] record = encode(sql, row);
+                if(record.length > SEGMENT_SIZE - HEADER_SIZE - 8) throw new IOException("Query is too large to be spooled");
+                if(active == null || active.remaining() < record.length + 8) roll();
+
+                int position = active.position();
+                active.position(position + 4);
+                active.put(record);
+                active.putInt(active.position(), 0);
+                active.putInt(position, record.length);
+            }
+        } catch (IOException ex) {
+            Message.log(Level.SEVERE, "Unable to spool a query: " + ex.getMessage());
+            if(LocalConfiguration.Debug.toBoolean()) ExceptionHandler.handle(ex);
+            return false;
+        }
+
+        if(!pending) {
+            pending = true;
+            if(outage) Message.log(Level.WARNING, "Database is unreachable. Data is being spooled to " + folder.getPath());
+            else Message.debug("Event buffers are full. Entries are being spilled to " + folder.getPath());
+        }
+        return true;
+    }
+
+    /**
+     * Replays all spooled queries in the order they were written.<br />
+     * Consecutive queries with the same SQL are sent as a single batch. Writes that arrive during the replay
+     * are spooled as well, and are replayed before the spool is marked as empty.
+     * @return <b>true</b> if the spool was drained, <b>false</b> if the database became unreachable again or a segment could not be read
+     */
+    public boolean replay() {
+        if(!pending) return true;
+        if(!replaying.compareAndSet(false, true)) return false;
+
+        try {
+            long replayed = 0;
+            while(true) {
+                File segment;
+                synchronized(this) {
+                    if(sealed.isEmpty()) {
+                        if(active == null || active.position() == HEADER_SIZE) {
+                            pending = false;
+                            Message.log("Replayed " + replayed + " spooled queries. No data is lost.");
+                            return true;
+                        }
+                        seal();
+                    }
+                    segment = sealed.getFirst();
+                }
+
+                long count = replaySegment(segment);
+                if(count < 0) return false;
+                replayed += count;
+
+                synchronized(this) { sealed.removeFirst(); }
+                if(!segment.delete()) segment.deleteOnExit();
+            }
+        } finally {
+            replaying.set(false);
+        }
+    }
+
+    /**
+     * Flushes the active segment to disk.<br />
+     * Spooled queries are kept on disk and replayed the next time the plugin starts.
+     */
+    public synchronized void close() {
+        if(active == null) return;
+        active.force();
+        active = null;
+        activeFile = null;
+    }
+
+    /**
+     * Replays the queries stored in the segment.<br />
+     * A segment that cannot be opened is kept, and retried with the next replay; only a segment with a corrupted
+     * header is discarded.
+     * @param segment Segment file
+     * @return Number of queries replayed, or <b>-1</b> if the database became unreachable or the segment could not be read
+     */
+    private long replaySegment(File segment) {
+        MappedByteBuffer buffer;
+        try { buffer = map(segment, false); }
+        catch (IOException ex) {
+            Message.log(Level.SEVERE, "Unable to read spooled segment " + segment.getName() + ", retrying later: " + ex.getMessage());
+            return -1;
+        }
+        if(buffer.getInt(0) != MAGIC) {
+            Message.log(Level.SEVERE, "Discarding a corrupted spool segment: " + segment.getName());
+            return 0;
+        }
+
+        int batchSize = Math.max(1, LocalConfiguration.DBBatchSize.toInteger());
+        long replayed = 0;
+        int position = buffer.getInt(READ_OFFSET);
+        String batchSql = null;
+        List<List<Object>> rows = new ArrayList<List<Object>>();
+
+        while(true) {
+            int length = position + 4 <= buffer.limit() ? buffer.getInt(position) : 0;
+            Record record = null;
+            if(length > 0) {
+                try { record = decode(buffer, position + 4, length); }
+                catch (IOException ex) {
+                    Message.log(Level.SEVERE, "Spool segment " + segment.getName() + " is corrupted at offset " + position + "; discarding the rest of it");
+                }
+            }
+
+            if(batchSql != null && (record == null || !record.sql.equals(batchSql) || rows.size() >= batchSize)) {
+                if(!Database.replayBatch(batchSql, rows)) {
+                    buffer.force();
+                    return -1;
+                }
+                buffer.putInt(READ_OFFSET, position);
+                replayed += rows.size();
+                batchSql = null;
+                rows = new ArrayList<List<Object>>();
+            }
+
+            if(record == null) break;
+            if(batchSql == null) batchSql = record.sql;
+            rows.add(record.parameters);
+            position += 4 + length;
+        }
+
+        buffer.force();
+        return replayed;
+    }
+
+    /**
+     * Seals the active segment and starts a new one
+     * @throws IOException Thrown if the new segment could not be created
+     */
+    private void roll() throws IOException {
+        seal();
+
+        File file = new File(folder, String.format("%016d", nextSegment) + EXTENSION);
+        MappedByteBuffer buffer = map(file, true);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(READ_OFFSET, HEADER_SIZE);
+        buffer.putInt(HEADER_SIZE, 0);
+        buffer.position(HEADER_SIZE);
+
+        nextSegment++;
+        activeFile = file;
+        active = buffer;
+    }
+
+    /**
+     * Moves the active segment to the replay queue
+     */
+    private void seal() {
+        if(active == null) return;
+        active.force();
+        if(active.position() > HEADER_SIZE) sealed.add(activeFile);
+        else if(!activeFile.delete()) activeFile.deleteOnExit();
+        active = null;
+        activeFile = null;
+    }
+
+    /**
+     * Maps the segment file into memory
+     * @param file Segment file
+     * @param create <b>true</b> to create a new, empty segment
+     * @return Mapped segment
+     * @throws IOException Thrown if the file could not be mapped
+     */
+    private static MappedByteBuffer map(File file, boolean create) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if(create) raf.setLength(SEGMENT_SIZE);
+            return raf.getChannel().map(MapMode.READ_WRITE, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Checks if the segment file contains any queries that have not been replayed yet
+     * @param file Segment file
+     * @return <b>true</b> if the segment has to be replayed, <b>false</b> otherwise
+     */
+    private static boolean hasRecords(File file) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            if(raf.length() < HEADER_SIZE + 4 || raf.readInt() != MAGIC) return false;
+            int offset = raf.readInt();
+            if(offset < HEADER_SIZE || offset + 4 > raf.length()) return false;
+            raf.seek(offset);
+            return raf.readInt() > 0;
+        } catch (IOException ex) {
+            return false;
+        } finally {
+            if(raf != null) {
+                try { raf.close(); }
+                catch (IOException ex) { }
+            }
+        }
+    }
+
+    /**
+     * Serializes the query
+     * @param sql Parameterized SQL query
+     * @param parameters Query parameters, in order
+     * @return Serialized query
+     * @throws IOException Thrown if a parameter could not be serialized
+     */
+    private static byte[] encode(String sql, List<Object> parameters) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(sql.length() + parameters.size() * 9 + 8);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, sql);
+        out.writeInt(parameters.size());
+        for(Object parameter : parameters) {
+            if(parameter == null) out.writeByte(TYPE_NULL);
+            else if(parameter instanceof Long || parameter instanceof Integer || parameter instanceof Short || parameter instanceof Byte) {
+                out.writeByte(TYPE_LONG);
+                out.writeLong(((Number) parameter).longValue());
+            } else if(parameter instanceof Number) {
+                out.writeByte(TYPE_DOUBLE);
+                out.writeDouble(((Number) parameter).doubleValue());
+            } else {
+                out.writeByte(TYPE_STRING);
+                writeString(out, parameter.toString());
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Deserializes the query
+     * @param buffer Segment buffer
+     * @param offset Offset of the serialized query
+     * @param length Length of the serialized query
+     * @return Deserialized query
+     * @throws IOException Thrown if the query is corrupted
+     */
+    private static Record decode(ByteBuffer buffer, int offset, int length) throws IOException {
+        if(offset + length > buffer.limit()) throw new IOException("Record exceeds the segment");
+        byte[] data = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(data);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        String sql = readString(in);
+        int count = in.readInt();
+        if(count < 0 || count > length) throw new IOException("Invalid parameter count");
+        List<Object> parameters = new ArrayList<Object>(count);
+        for(int i = 0; i < count; i++) {
+            byte type = in.readByte();
+            switch(type) {
+                case TYPE_NULL:
+                    parameters.add(null);
+                    break;
+                case TYPE_LONG:
+                    parameters.add(in.readLong());
+                    break;
+                case TYPE_DOUBLE:
+                    parameters.add(in.readDouble());
+                    break;
+                case TYPE_STRING:
+                    parameters.add(readString(in));
+                    break;
+                default:
+                    throw new IOException("Unknown parameter type: " + type);
+            }
+        }
+        return new Record(sql, parameters);
+    }
+
+    /**
+     * Writes a length-prefixed UTF-8 string
+     * @param out Output stream
+     * @param value String to write
+     * @throws IOException Thrown if the string could not be written
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string
+     * @param in Input stream
+     * @return String that was read
+     * @throws IOException Thrown if the string is corrupted
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if(length < 0 || length > in.available()) throw new IOException("Invalid string length");
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Represents a single spooled query
+     * @author bitWolfy
+     *
+     */
+    private static class Record {
+
+        private final String sql;
+        private final List<Object> parameters;
+
+        public Record(String sql, List<Object> parameters) {
+            this.sql = sql;
+            this.parameters = parameters;
+        }
+
+    }
+
+}
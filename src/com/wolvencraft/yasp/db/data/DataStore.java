@@ -21,11 +21,20 @@
 package com.wolvencraft.yasp.db.data;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import lombok.AccessLevel;
 import lombok.Getter;
 
+import com.wolvencraft.yasp.db.Query;
+import com.wolvencraft.yasp.db.Query.DatabaseQuery;
 import com.wolvencraft.yasp.session.OnlineSession;
 import com.wolvencraft.yasp.util.Message;
 
@@ -39,14 +48,14 @@ public abstract class DataStore<N extends NormalData, D extends DetailedData> {
     @Getter(AccessLevel.PUBLIC) private DataStoreType type;
     @Getter(AccessLevel.PUBLIC) protected OnlineSession session;
     
-    protected List<N> normalData;
-    protected List<D> detailedData;
+    protected ConcurrentMap<String, N> normalData;
+    protected EventBuffer<D> detailedData;
     
     public DataStore(OnlineSession session, DataStoreType type) {
         this.session = session;
         this.type = type;
-        this.normalData = new ArrayList<N>();
-        this.detailedData = new ArrayList<D>();
+        this.normalData = new ConcurrentHashMap<String, N>();
+        this.detailedData = new EventBuffer<D>(session);
     }
     
     /**
@@ -55,7 +64,19 @@ public abstract class DataStore<N extends NormalData, D extends DetailedData> {
      * @return Dynamic entries in the data store
      */
     public List<N> getNormalData() {
-        return new ArrayList<N>(normalData);
+        return new ArrayList<N>(normalData.values());
+    }
+    
+    /**
+     * Adds the dynamic entry to the data store, unless another thread has already added one with the same key.<br />
+     * Entries are indexed by a compact key that identifies the database row they are pushed to.
+     * @param key Entry key
+     * @param entry Entry to add
+     * @return Entry that is stored under the key
+     */
+    protected N putNormalData(String key, N entry) {
+        N existing = normalData.putIfAbsent(key, entry);
+        return existing == null ? entry : existing;
     }
     
     /**
@@ -63,43 +84,60 @@ public abstract class DataStore<N extends NormalData, D extends DetailedData> {
      * @return Static entries in the data store
      */
     public List<D> getDetailedData() {
-        return new ArrayList<D>(detailedData);
+        return detailedData.snapshot();
+    }
+    
+    /**
+     * Returns the number of entries waiting to be synchronized, i.e. all static entries and the changed dynamic ones
+     * @return Number of pending entries
+     */
+    public int getPendingCount() {
+        int pending = detailedData.size();
+        for(N entry : normalData.values()) if(entry.isDirty()) pending++;
+        return pending;
     }
     
     /**
      * Synchronizes the data from the data store to the database, then removes it from local storage<br />
+     * Detailed entries are drained from the buffer and inserted in batches, and persistent normal entries are kept for the next sync.
+     * Normal entries that have not changed since the last sync are skipped.
      * If an entry was not synchronized, it will not be removed.
      */
     public void pushData() {
-        for(N entry : getNormalData()) {
-           try{
-                 if(((NormalData) entry).pushData(session.getId())) normalData.remove(entry);
-           } catch(NullPointerException e ){
-                 Message.debug("NPE occurred while saving NormalData: "+ ((NormalData) entry));
-                 normalData.remove(entry);
-           }
-        }   
-        for(D entry : getDetailedData()) {
-            try{
-                 if(((DetailedData) entry).pushData(session.getId())) detailedData.remove(entry);
-            } catch(NullPointerException e ){
-                 Message.debug("NPE occurred while saving DetailedData: "+ ((DetailedData) entry));
-                 detailedData.remove(entry);
+        for(Entry<String, N> pair : normalData.entrySet()) {
+            N entry = pair.getValue();
+            try {
+                if(entry.pushChanges(session.getId()) && !entry.isPersistent()) normalData.remove(pair.getKey(), entry);
+            } catch(NullPointerException e) {
+                Message.debug("NPE occurred while saving NormalData: " + entry);
+                normalData.remove(pair.getKey(), entry);
             }
         }
+        
+        List<D> batch = detailedData.drain();
+        if(batch.isEmpty()) return;
+        
+        Map<D, DatabaseQuery> queries = new LinkedHashMap<D, DatabaseQuery>();
+        for(D entry : batch) {
+            try {
+                queries.put(entry, entry.getInsertQuery(session.getId()));
+            } catch(NullPointerException e) {
+                Message.debug("NPE occurred while saving DetailedData: " + entry);
+            }
+        }
+        
+        Set<D> inserted = queries.isEmpty() ? Collections.<D>emptySet() : Query.insertBatch(queries);
+        List<D> failed = new ArrayList<D>();
+        for(D entry : queries.keySet()) if(!inserted.contains(entry)) failed.add(entry);
+        detailedData.requeue(failed);
     }
     
     /**
      * Clears the data store of all locally stored data.
      */
     public void dump() {
-        for(N entry : getNormalData()) {
-            normalData.remove(entry);
-        }
-        
-        for(D entry : getDetailedData()) {
-            detailedData.remove(entry);
-        }
+        normalData.clear();
+        detailedData.clear();
     }
     
     /**
@@ -1,5 +1,7 @@
 package com.wolvencraft.yasp.db.data;
 
+import com.wolvencraft.yasp.db.Query.DatabaseQuery;
+
 /**
  * Represents data stored in a log format. New data is appended to the end of the table. No existing data can be changed.<br />
  * Multiple instances of this type could (and should) exist.
@@ -10,9 +12,19 @@ public abstract class DetailedData {
     
     /**
      * Explicitly pushes data to the remote database.<br />
-     * If the data holder is marked as <i>on hold</i>, skips the holder
+     * Data stores do not use this method; they send their entries to the database in batches instead.
+     * @param playerId Player ID
+     * @return <b>true</b> if the holder has been synchronized and can be removed, <b>false</b> otherwise
+     */
+    public boolean pushData(int playerId) {
+        return getInsertQuery(playerId).insert();
+    }
+    
+    /**
+     * Builds the INSERT query that appends this entry to the log table.<br />
+     * The query is not executed; it is used to group entries into batch inserts.
      * @param playerId Player ID
-     * @return <b>true</b> if the holder has been synchronized and can be removed, <b>false</b> if it is on hold
+     * @return Insert query
      */
-    public abstract boolean pushData(int playerId);
+    public abstract DatabaseQuery getInsertQuery(int playerId);
 }
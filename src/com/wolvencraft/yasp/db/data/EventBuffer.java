@@ -0,0 +1,298 @@
+/*
+ * EventBuffer.java
+ *
+ * Statistics
+ * Copyright (C) 2013 bitWolfy <http://www.wolvencraft.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.wolvencraft.yasp.db.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import com.wolvencraft.yasp.session.PlayerSession;
+import com.wolvencraft.yasp.settings.LocalConfiguration;
+import com.wolvencraft.yasp.util.Message;
+
+/**
+ * A lock-free buffer for entries that are produced by many threads and synchronized by one.<br />
+ * Event handlers add entries without blocking; the synchronization thread drains them in batches,
+ * and puts back the ones that could not be pushed, so that they are retried first on the next sync.<br />
+ * The buffer is bounded both per session and across all sessions. Once either limit is reached,
+ * new entries are handled according to the configured {@link OverflowPolicy}.
+ * @author bitWolfy
+ *
+ * @param <T> Entry type
+ */
+public class EventBuffer<T extends DetailedData> {
+    
+    private static final AtomicInteger globalDepth = new AtomicInteger(0);
+    private static final AtomicLong dropped = new AtomicLong(0);
+    private static final AtomicLong spilled = new AtomicLong(0);
+    private static final AtomicLong sampled = new AtomicLong(0);
+    
+    private final ConcurrentLinkedDeque<T> entries;
+    private final AtomicInteger depth;
+    private final AtomicLong overflowed;
+    private volatile boolean overflowing;
+    
+    private final PlayerSession session;
+    private final int playerId;
+    
+    /**
+     * <b>Default constructor</b><br />
+     * Creates an empty buffer for the entries of a player session.<br />
+     * The player ID is looked up when entries are spilled, since it might not be known yet when the session is created.
+     * @param session Player session that owns the entries
+     */
+    public EventBuffer(PlayerSession session) {
+        this(session, -1);
+    }
+    
+    /**
+     * <b>Constructor</b><br />
+     * Creates an empty buffer for the entries of a player with a known ID
+     * @param playerId Player ID
+     */
+    public EventBuffer(int playerId) {
+        this(null, playerId);
+    }
+    
+    private EventBuffer(PlayerSession session, int playerId) {
+        this.entries = new ConcurrentLinkedDeque<T>();
+        this.depth = new AtomicInteger(0);
+        this.overflowed = new AtomicLong(0);
+        this.overflowing = false;
+        this.session = session;
+        this.playerId = playerId;
+    }
+    
+    /**
+     * Adds an entry to the end of the buffer, or applies the overflow policy if the buffer is full.<br />
+     * Safe to call from any thread.
+     * @param entry Entry to add
+     */
+    public void add(T entry) {
+        if(!isFull()) {
+            enqueue(entry);
+            return;
+        }
+        
+        if(!overflowing) {
+            overflowing = true;
+            Message.log(Level.WARNING, "Event buffer is full (" + depth.get() + " entries, " + globalDepth.get() + " total); "
+                    + "applying the overflow policy: " + LocalConfiguration.DBBufferPolicy.toString());
+        }
+        
+        switch(OverflowPolicy.get(LocalConfiguration.DBBufferPolicy.toString())) {
+            case Spill:
+                int id = getPlayerId();
+                if(id > 0 && entry.getInsertQuery(id).spill()) {
+                    spilled.incrementAndGet();
+                    return;
+                }
+                break;
+            case Sample:
+                int rate = Math.max(1, LocalConfiguration.DBBufferSampleRate.toInteger());
+                if(overflowed.incrementAndGet() % rate == 0 && entries.pollFirst() != null) {
+                    decrement(1);
+                    enqueue(entry);
+                    sampled.incrementAndGet();
+                }
+                break; // Either the new entry or the evicted one is lost
+            default:
+                break;
+        }
+        dropped.incrementAndGet();
+    }
+    
+    /**
+     * Removes all entries from the buffer and returns them in the order they were added
+     * @return Batch of entries
+     */
+    public List<T> drain() {
+        return drain(Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Removes up to the specified number of entries from the buffer and returns them in the order they were added
+     * @param max Maximum number of entries to remove
+     * @return Batch of entries
+     */
+    public List<T> drain(int max) {
+        List<T> batch = new ArrayList<T>();
+        T entry;
+        while(batch.size() < max && (entry = entries.pollFirst()) != null) batch.add(entry);
+        decrement(batch.size());
+        if(overflowing && !isFull()) overflowing = false;
+        return batch;
+    }
+    
+    /**
+     * Puts the entries back at the front of the buffer, keeping their order.<br />
+     * Used for the entries of a drained batch that could not be synchronized. These entries have
+     * already been accepted once, so they are put back even if the buffer is full.
+     * @param batch Entries to put back
+     */
+    public void requeue(List<T> batch) {
+        for(int i = batch.size() - 1; i >= 0; i--) entries.offerFirst(batch.get(i));
+        depth.addAndGet(batch.size());
+        globalDepth.addAndGet(batch.size());
+    }
+    
+    /**
+     * Returns a copy of the entries that are currently in the buffer
+     * @return List of entries
+     */
+    public List<T> snapshot() {
+        return new ArrayList<T>(entries);
+    }
+    
+    /**
+     * Returns the number of entries in the buffer
+     * @return Number of entries
+     */
+    public int size() {
+        return depth.get();
+    }
+    
+    /**
+     * Checks if the buffer is empty
+     * @return <b>true</b> if there are no entries in the buffer, <b>false</b> otherwise
+     */
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+    
+    /**
+     * Removes all entries from the buffer
+     */
+    public void clear() {
+        int removed = 0;
+        while(entries.pollFirst() != null) removed++;
+        decrement(removed);
+        overflowing = false;
+    }
+    
+    /**
+     * Checks if either the session limit or the global limit has been reached
+     * @return <b>true</b> if the buffer is full, <b>false</b> otherwise
+     */
+    private boolean isFull() {
+        return depth.get() >= LocalConfiguration.DBBufferSessionLimit.toInteger()
+                || globalDepth.get() >= LocalConfiguration.DBBufferGlobalLimit.toInteger();
+    }
+    
+    /**
+     * Adds the entry to the end of the buffer and updates the counters
+     * @param entry Entry to add
+     */
+    private void enqueue(T entry) {
+        entries.offerLast(entry);
+        depth.incrementAndGet();
+        globalDepth.incrementAndGet();
+    }
+    
+    /**
+     * Updates the counters after entries were removed from the buffer
+     * @param count Number of removed entries
+     */
+    private void decrement(int count) {
+        if(count == 0) return;
+        depth.addAndGet(-count);
+        globalDepth.addAndGet(-count);
+    }
+    
+    /**
+     * Returns the ID of the player who owns the entries
+     * @return Player ID, or <b>-1</b> if it is not known yet
+     */
+    private int getPlayerId() {
+        return session == null ? playerId : session.getId();
+    }
+    
+    /**
+     * Returns the number of entries in all event buffers
+     * @return Number of buffered entries
+     */
+    public static int getGlobalDepth() {
+        return globalDepth.get();
+    }
+    
+    /**
+     * Returns the number of entries that were discarded because a buffer was full
+     * @return Number of dropped entries
+     */
+    public static long getDropped() {
+        return dropped.get();
+    }
+    
+    /**
+     * Returns the number of entries that were written to the overflow spool because a buffer was full
+     * @return Number of spilled entries
+     */
+    public static long getSpilled() {
+        return spilled.get();
+    }
+    
+    /**
+     * Returns the number of entries that were kept in a full buffer in place of an older entry
+     * @return Number of sampled entries
+     */
+    public static long getSampled() {
+        return sampled.get();
+    }
+    
+    /**
+     * Represents the way entries are handled once a buffer is full
+     * @author bitWolfy
+     *
+     */
+    public enum OverflowPolicy {
+        
+        /**
+         * Entries are written to the overflow spool, and sent to the database with the next replay
+         */
+        Spill,
+        
+        /**
+         * Entries are discarded
+         */
+        Drop,
+        
+        /**
+         * Every n-th entry replaces the oldest entry in the buffer; the rest are discarded
+         */
+        Sample;
+        
+        /**
+         * Returns the policy with the specified name
+         * @param name Policy name, case-insensitive
+         * @return Overflow policy, or <b>Drop</b> if the name is not recognized
+         */
+        public static OverflowPolicy get(String name) {
+            for(OverflowPolicy policy : values()) {
+                if(policy.name().equalsIgnoreCase(name)) return policy;
+            }
+            return Drop;
+        }
+    }
+    
+}
@@ -1,13 +1,20 @@
 package com.wolvencraft.yasp.db.data;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Represents the "totals" of statistical data. These entries are changing every time their corresponding data type changes.<br />
- * No duplicate entries are allowed.
+ * No duplicate entries are allowed.<br />
+ * Each entry keeps a version counter that is bumped whenever its data changes, so that entries
+ * that have not changed since the last sync are not pushed to the database again.
  * @author bitWolfy
  *
  */
 public abstract class NormalData {
     
+    private final AtomicLong version = new AtomicLong(1);
+    private volatile long syncedVersion = 0;
+    
     /**
      * Performs a database operation to fetch the data from the remote database.<br />
      * If no data is found in the database, the default values are inserted.
@@ -23,9 +30,56 @@ public abstract class NormalData {
      */
     public abstract boolean pushData(int playerId);
     
+    /**
+     * Pushes the local data to the remote database, but only if it has changed since the last successful push.<br />
+     * Changes made while the data is being pushed are picked up by the next call.
+     * @param playerId Player ID
+     * @return <b>true</b> if the database is up to date, <b>false</b> if the push failed
+     */
+    public boolean pushChanges(int playerId) {
+        long current = version.get();
+        if(current == syncedVersion) return true;
+        if(!pushData(playerId)) return false;
+        syncedVersion = current;
+        return true;
+    }
+    
+    /**
+     * Checks if the data has changed since it was last pushed to the database
+     * @return <b>true</b> if the data has changed, <b>false</b> otherwise
+     */
+    public boolean isDirty() {
+        return version.get() != syncedVersion;
+    }
+    
+    /**
+     * Marks the data as changed.<br />
+     * Must be called by every method that changes the values that are pushed to the database.
+     */
+    protected void markDirty() {
+        version.incrementAndGet();
+    }
+    
+    /**
+     * Marks the data as being in sync with the database, i.e. right after it has been read from it
+     */
+    protected void markSynced() {
+        syncedVersion = version.get();
+    }
+    
     /**
      * Resets the values of the data store to the default ones
      * @param playerId Player ID
      */
     public abstract void clearData(int playerId);
+    
+    /**
+     * Checks if the entry should stay in its data store after it has been synchronized.<br />
+     * Entries that the data store looks up again are kept, so that they never have to be read back from the database,
+     * and so that a change made by a listener that fetched the entry just before it was removed is never lost.
+     * @return <b>true</b> if the entry should be kept, <b>false</b> if it should be removed
+     */
+    public boolean isPersistent() {
+        return false;
+    }
 }
@@ -31,6 +31,7 @@ import com.wolvencraft.yasp.events.player.TrackedBlockBreakEvent;
 import com.wolvencraft.yasp.events.player.TrackedBlockPlaceEvent;
 import com.wolvencraft.yasp.session.OnlineSession;
 import com.wolvencraft.yasp.settings.Module;
+import com.wolvencraft.yasp.util.cache.MaterialCache;
 
 /**
  * Data store that handles all block interactions on the server
@@ -50,12 +51,10 @@ public class BlockData extends DataStore<TotalBlockStats, DetailedData> {
      * @return Corresponding entry
      */
     private TotalBlockStats getNormalData(BlockState block) {
-        for(TotalBlockStats entry : getNormalData()) {
-            if(entry.equals(block)) return entry;
-        }
-        TotalBlockStats entry = new TotalBlockStats(session.getId(), block);
-        normalData.add(entry);
-        return entry;
+        String key = MaterialCache.getKey(block);
+        TotalBlockStats entry = normalData.get(key);
+        if(entry != null) return entry;
+        return putNormalData(key, new TotalBlockStats(session.getId(), block));
     }
     
     /**
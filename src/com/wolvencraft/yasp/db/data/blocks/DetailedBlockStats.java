@@ -27,6 +27,7 @@ import org.bukkit.Location;
 import org.bukkit.block.BlockState;
 
 import com.wolvencraft.yasp.db.Query;
+import com.wolvencraft.yasp.db.Query.DatabaseQuery;
 import com.wolvencraft.yasp.db.data.DetailedData;
 import com.wolvencraft.yasp.db.tables.Detailed.BlocksBroken;
 import com.wolvencraft.yasp.db.tables.Detailed.BlocksPlaced;
@@ -52,7 +53,7 @@ public class DetailedBlockStats {
         }
 
         @Override
-        public boolean pushData(int playerId) {
+        public DatabaseQuery getInsertQuery(int playerId) {
             Location location = block.getLocation();
             return Query.table(BlocksBroken.TableName)
                 .value(BlocksBroken.PlayerId, playerId)
@@ -61,8 +62,7 @@ public class DetailedBlockStats {
                 .value(BlocksBroken.XCoord, location.getBlockX())
                 .value(BlocksBroken.YCoord, location.getBlockY())
                 .value(BlocksBroken.ZCoord, location.getBlockZ())
-                .value(BlocksBroken.Timestamp, timestamp)
-                .insert();
+                .value(BlocksBroken.Timestamp, timestamp);
         }
     }
     
@@ -83,7 +83,7 @@ public class DetailedBlockStats {
         }
 
         @Override
-        public boolean pushData(int playerId) {
+        public DatabaseQuery getInsertQuery(int playerId) {
             Location location = block.getLocation();
             return Query.table(BlocksPlaced.TableName)
                 .value(BlocksPlaced.PlayerId, playerId)
@@ -92,8 +92,7 @@ public class DetailedBlockStats {
                 .value(BlocksPlaced.XCoord, location.getBlockX())
                 .value(BlocksPlaced.YCoord, location.getBlockY())
                 .value(BlocksPlaced.ZCoord, location.getBlockZ())
-                .value(BlocksPlaced.Timestamp, timestamp)
-                .insert();
+                .value(BlocksPlaced.Timestamp, timestamp);
         }
     }
 }
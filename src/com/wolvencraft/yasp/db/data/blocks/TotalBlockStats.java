@@ -23,16 +23,15 @@ package com.wolvencraft.yasp.db.data.blocks;
 import org.bukkit.block.BlockState;
 
 import com.wolvencraft.yasp.db.Query;
-import com.wolvencraft.yasp.db.Query.QueryResult;
 import com.wolvencraft.yasp.db.data.NormalData;
 import com.wolvencraft.yasp.db.tables.Normal.BlockTotals;
 import com.wolvencraft.yasp.settings.Constants.ItemsWithMetadata;
-import com.wolvencraft.yasp.settings.RemoteConfiguration;
 import com.wolvencraft.yasp.util.cache.MaterialCache;
 
 /**
  * Represents an entry in the PVP data store.
- * It is dynamic, i.e. it can be edited once it has been created.
+ * It is dynamic, i.e. it can be edited once it has been created.<br />
+ * Only the changes made since the last successful push are kept locally.
  * @author bitWolfy
  *
  */
@@ -51,55 +50,50 @@ public class TotalBlockStats extends NormalData {
         this.block = block;
         broken = 0;
         placed = 0;
-        
-        fetchData(playerId);
     }
     
+    /**
+     * Block totals are pushed as increments, so they never have to be read back from the database
+     */
     @Override
-    public void fetchData(int playerId) {
-        if(RemoteConfiguration.MergedDataTracking.asBoolean()) {
-            clearData(playerId);
-            return;
-        }
-        
-        QueryResult result = Query.table(BlockTotals.TableName)
-                .column(BlockTotals.Destroyed)
-                .column(BlockTotals.Placed)
-                .condition(BlockTotals.PlayerId, playerId)
-                .condition(BlockTotals.MaterialId, MaterialCache.parse(block))
-                .select();
-        
-        if(result == null) {
-            Query.table(BlockTotals.TableName)
-                .value(BlockTotals.PlayerId, playerId)
-                .value(BlockTotals.MaterialId, MaterialCache.parse(block))
-                .value(BlockTotals.Destroyed, broken)
-                .value(BlockTotals.Placed, placed)
-                .insert();
-        } else {
-            broken = result.asInt(BlockTotals.Destroyed);
-            placed = result.asInt(BlockTotals.Placed);
-        }
-    }
+    @Deprecated
+    public void fetchData(int playerId) { }
 
     @Override
     public boolean pushData(int playerId) {
+        int brokenDelta, placedDelta;
+        synchronized(this) {
+            brokenDelta = broken;
+            placedDelta = placed;
+        }
+        if(brokenDelta == 0 && placedDelta == 0) return true;
+        
         boolean result = Query.table(BlockTotals.TableName)
-            .value(BlockTotals.Destroyed, broken)
-            .value(BlockTotals.Placed, placed)
+            .increment(BlockTotals.Destroyed, brokenDelta)
+            .increment(BlockTotals.Placed, placedDelta)
             .condition(BlockTotals.PlayerId, playerId)
             .condition(BlockTotals.MaterialId, MaterialCache.parse(block))
-            .update(RemoteConfiguration.MergedDataTracking.asBoolean());
-        fetchData(playerId);
-        return result;
+            .upsert();
+        if(!result) return false;
+        
+        synchronized(this) {
+            broken -= brokenDelta;
+            placed -= placedDelta;
+        }
+        return true;
     }
     
     @Override
-    public void clearData(int playerId) {
+    public synchronized void clearData(int playerId) {
         broken = 0;
         placed = 0;
     }
     
+    @Override
+    public boolean isPersistent() {
+        return true;
+    }
+    
     /**
      * Checks if the object corresponds to provided parameters
      * @param block Block to compare to
@@ -116,14 +110,16 @@ public class TotalBlockStats extends NormalData {
     /**
      * Increments the number of blocks to the total number of blocks destroyed
      */
-    public void addBroken() {
+    public synchronized void addBroken() {
         broken ++;
+        markDirty();
     }
     
     /**
      * Increments the number of blocks to the total number of blocks placed
      */
-    public void addPlaced() {
+    public synchronized void addPlaced() {
         placed ++;
+        markDirty();
     }
 }
@@ -26,10 +26,8 @@ import lombok.Getter;
 import org.bukkit.event.entity.EntityDamageEvent.DamageCause;
 
 import com.wolvencraft.yasp.db.Query;
-import com.wolvencraft.yasp.db.Query.QueryResult;
 import com.wolvencraft.yasp.db.data.NormalData;
 import com.wolvencraft.yasp.db.tables.Normal.DeathTotals;
-import com.wolvencraft.yasp.settings.RemoteConfiguration;
 
 /**
  * Represents the total number of times a player died of a particular cause.<br />
@@ -46,55 +44,48 @@ public class TotalDeathStats extends NormalData {
     public TotalDeathStats(int playerId, DamageCause cause) {
         this.cause = cause;
         times = 0;
-        
-        fetchData(playerId);
     }
     
+    /**
+     * Deaths are pushed as increments, so the existing total is never read
+     */
     @Override
-    public void fetchData(int playerId) {
-        if(RemoteConfiguration.MergedDataTracking.asBoolean()) {
-            clearData(playerId);
-            return;
-        }
+    @Deprecated
+    public void fetchData(int playerId) { }
+
+    @Override
+    public boolean pushData(int playerId) {
+        int delta;
+        synchronized(this) { delta = times; }
+        if(delta == 0) return true;
         
-        QueryResult result = Query.table(DeathTotals.TableName)
-                .column(DeathTotals.Times)
+        boolean result = Query.table(DeathTotals.TableName)
+                .increment(DeathTotals.Times, delta)
                 .condition(DeathTotals.PlayerId, playerId)
                 .condition(DeathTotals.Cause, cause.name())
-                .select();
+                .upsert();
+        if(!result) return false;
         
-        if(result == null) {
-            Query.table(DeathTotals.TableName)
-                .value(DeathTotals.PlayerId, playerId)
-                .value(DeathTotals.Cause, cause.name())
-                .value(DeathTotals.Times, times)
-                .insert();
-        } else {
-            times = result.asInt(DeathTotals.Times);
-        }
+        synchronized(this) { times -= delta; }
+        return true;
     }
 
     @Override
-    public boolean pushData(int playerId) {
-        boolean result = Query.table(DeathTotals.TableName)
-                .value(DeathTotals.Times, times)
-                .condition(DeathTotals.PlayerId, playerId)
-                .condition(DeathTotals.Cause, cause.name())
-                .update(RemoteConfiguration.MergedDataTracking.asBoolean());
-        fetchData(playerId);
-        return result;
+    public synchronized void clearData(int playerId) {
+        times = 0;
     }
     
     @Override
-    public void clearData(int playerId) {
-        times = 0;
+    public boolean isPersistent() {
+        return true;
     }
     
     /**
      * Increments the number of times a player died from the specified cause.
      */
-    public void addTimes() {
+    public synchronized void addTimes() {
         times++;
+        markDirty();
     }
     
 }
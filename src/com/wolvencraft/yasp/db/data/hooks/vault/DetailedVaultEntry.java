@@ -18,6 +18,7 @@
 package com.wolvencraft.yasp.db.data.hooks.vault;
 
 import com.wolvencraft.yasp.db.Query;
+import com.wolvencraft.yasp.db.Query.DatabaseQuery;
 import com.wolvencraft.yasp.db.data.DetailedData;
 import com.wolvencraft.yasp.db.tables.Hook;
 import com.wolvencraft.yasp.util.Util;
@@ -47,12 +48,11 @@ public class DetailedVaultEntry extends DetailedData {
     } 
     
     @Override
-    public boolean pushData(int playerId) {
+    public DatabaseQuery getInsertQuery(int playerId) {
         return Query.table(Hook.DetailedVaultTable.TableName)
                     .value(Hook.DetailedVaultTable.PlayerId, playerId)
                     .value(Hook.DetailedVaultTable.Balance, balance)
-                    .value(Hook.DetailedVaultTable.TimeStamp, timestamp)
-                    .insert();
+                    .value(Hook.DetailedVaultTable.TimeStamp, timestamp);
         }
 }
  
\ No newline at end of file
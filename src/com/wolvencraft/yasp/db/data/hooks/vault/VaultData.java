@@ -40,7 +40,7 @@ public class VaultData extends DataStore<VaultPlayerEntry, DetailedData> {
     
     public void VaultEntry() {
         VaultPlayerEntry entry = new VaultPlayerEntry(session.getBukkitPlayer(),session.getId());
-        normalData.add(entry);
+        normalData.put(DataStoreType.Hook_Vault.name(), entry);
         
         DetailedVaultEntry detailedentry = new DetailedVaultEntry(session.getBukkitPlayer(),session.getId());
         detailedData.add(detailedentry);
@@ -22,6 +22,7 @@ package com.wolvencraft.yasp.db.data.hooks.votifier;
 
 import com.vexsoftware.votifier.model.Vote;
 import com.wolvencraft.yasp.db.Query;
+import com.wolvencraft.yasp.db.Query.DatabaseQuery;
 import com.wolvencraft.yasp.db.data.DetailedData;
 import com.wolvencraft.yasp.db.tables.Hook.DetailedVotifierTable;
 
@@ -36,12 +37,11 @@ public class DetailedVotifierEntry extends DetailedData {
     }
     
     @Override
-    public boolean pushData(int playerId) {
+    public DatabaseQuery getInsertQuery(int playerId) {
         return Query.table(DetailedVotifierTable.TableName)
             .value(DetailedVotifierTable.PlayerId, playerId)
             .value(DetailedVotifierTable.ServiceName, serviceName)
-            .value(DetailedVotifierTable.Timestamp, timestamp)
-            .insert();
+            .value(DetailedVotifierTable.Timestamp, timestamp);
     }
 
 }
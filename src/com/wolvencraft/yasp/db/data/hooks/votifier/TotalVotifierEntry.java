@@ -25,10 +25,8 @@ import lombok.Getter;
 
 import com.vexsoftware.votifier.model.Vote;
 import com.wolvencraft.yasp.db.Query;
-import com.wolvencraft.yasp.db.Query.QueryResult;
 import com.wolvencraft.yasp.db.data.NormalData;
 import com.wolvencraft.yasp.db.tables.Hook.VotifierTotalsTable;
-import com.wolvencraft.yasp.settings.RemoteConfiguration;
 
 @Getter(AccessLevel.PUBLIC) 
 public class TotalVotifierEntry extends NormalData {
@@ -39,49 +37,52 @@ public class TotalVotifierEntry extends NormalData {
     public TotalVotifierEntry(int playerId, Vote vote) {
         this.serviceName = vote.getServiceName();
         this.votes = 0;
-        
-        fetchData(playerId);
     }
     
+    /**
+     * Votes are pushed as increments, so the existing total is never read
+     */
+    @Override
+    @Deprecated
+    public void fetchData(int playerId) { }
+
+    /**
+     * Each service has its own row, keyed by the player and the service name
+     */
     @Override
-    public void fetchData(int playerId) {
-        if(RemoteConfiguration.MergedDataTracking.asBoolean()) {
-            clearData(playerId);
-            return;
-        }
+    public boolean pushData(int playerId) {
+        int delta;
+        synchronized(this) { delta = votes; }
+        if(delta == 0) return true;
         
-        QueryResult result = Query.table(VotifierTotalsTable.TableName)
-                .column(VotifierTotalsTable.Votes)
+        boolean result = Query.table(VotifierTotalsTable.TableName)
+                .increment(VotifierTotalsTable.Votes, delta)
                 .condition(VotifierTotalsTable.PlayerId, playerId)
                 .condition(VotifierTotalsTable.ServiceName, serviceName)
-                .select();
-        if(result == null) {
-            Query.table(VotifierTotalsTable.TableName)
-                .value(VotifierTotalsTable.PlayerId, playerId)
-                .value(VotifierTotalsTable.ServiceName, serviceName)
-                .value(VotifierTotalsTable.Votes, votes)
-                .insert();
-        } else {
-            votes = result.asInt(VotifierTotalsTable.Votes);
-        }
+                .upsert();
+        if(!result) return false;
+        
+        synchronized(this) { votes -= delta; }
+        return true;
     }
 
     @Override
-    public boolean pushData(int playerId) {
-        return Query.table(VotifierTotalsTable.TableName)
-                .value(VotifierTotalsTable.PlayerId, playerId)
-                .value(VotifierTotalsTable.ServiceName, serviceName)
-                .value(VotifierTotalsTable.Votes, votes)
-                .insert();
+    public synchronized void clearData(int playerId) {
+        votes = 0;
     }
-
+    
+    /**
+     * The entry is looked up again on every vote, so it has to stay in the data store.<br />
+     * A removed entry could still receive a vote from a listener that fetched it just before the removal.
+     */
     @Override
-    public void clearData(int playerId) {
-        votes = 0;
+    public boolean isPersistent() {
+        return true;
     }
     
-    public void addVote() {
+    public synchronized void addVote() {
         votes++;
+        markDirty();
     }
 
 }
@@ -31,18 +31,8 @@ public class VotifierData extends DataStore<TotalVotifierEntry, DetailedVotifier
     }
     
     public void playerVoted(Vote vote) {
-        TotalVotifierEntry entry = null;
-        for(TotalVotifierEntry testEntry : getNormalData()) {
-            if(testEntry.getServiceName().equals(vote.getServiceName())) {
-                entry = testEntry;
-                break;
-            }
-        }
-        
-        if(entry == null) {
-            entry = new TotalVotifierEntry(session.getId(), vote);
-            normalData.add(entry);
-        }
+        TotalVotifierEntry entry = normalData.get(vote.getServiceName());
+        if(entry == null) entry = putNormalData(vote.getServiceName(), new TotalVotifierEntry(session.getId(), vote));
         
         entry.addVote();
         detailedData.add(new DetailedVotifierEntry(vote));
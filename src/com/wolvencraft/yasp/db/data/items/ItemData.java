@@ -34,6 +34,7 @@ import com.wolvencraft.yasp.events.player.TrackedItemPickupEvent;
 import com.wolvencraft.yasp.events.player.TrackedItemUseEvent;
 import com.wolvencraft.yasp.session.OnlineSession;
 import com.wolvencraft.yasp.settings.Module;
+import com.wolvencraft.yasp.util.cache.MaterialCache;
 
 /**
  * Data store that records all item interactions on the server.
@@ -53,12 +54,10 @@ public class ItemData extends DataStore<TotalItemStats, DetailedData> {
      * @return Corresponding entry
      */
     public TotalItemStats getNormalData(ItemStack itemStack) {
-        for(TotalItemStats entry : getNormalData()) {
-            if(entry.equals(itemStack)) return entry;
-        }
-        TotalItemStats entry = new TotalItemStats(session.getId(), itemStack);
-        normalData.add(entry);
-        return entry;
+        String key = MaterialCache.getKey(itemStack);
+        TotalItemStats entry = normalData.get(key);
+        if(entry != null) return entry;
+        return putNormalData(key, new TotalItemStats(session.getId(), itemStack));
     }
     
     /**
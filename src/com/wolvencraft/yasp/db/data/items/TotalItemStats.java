@@ -24,11 +24,9 @@ import org.bukkit.Material;
 import org.bukkit.inventory.ItemStack;
 
 import com.wolvencraft.yasp.db.Query;
-import com.wolvencraft.yasp.db.Query.QueryResult;
 import com.wolvencraft.yasp.db.data.NormalData;
 import com.wolvencraft.yasp.db.tables.Normal.ItemTotals;
 import com.wolvencraft.yasp.settings.Constants.ItemsWithMetadata;
-import com.wolvencraft.yasp.settings.RemoteConfiguration;
 import com.wolvencraft.yasp.util.cache.MaterialCache;
 
 /**
@@ -66,75 +64,54 @@ public class TotalItemStats extends NormalData {
         smelted = 0;
         enchanted = 0;
         repaired = 0;
-        
-        fetchData(playerId);
     }
     
+    /**
+     * Item totals are pushed as increments and are never read back from the database
+     */
     @Override
-    public void fetchData(int playerId) {
-        if(RemoteConfiguration.MergedDataTracking.asBoolean()) {
-            clearData(playerId);
-            return;
-        }
-        
-        QueryResult result = Query.table(ItemTotals.TableName)
-                .column(ItemTotals.Dropped)
-                .column(ItemTotals.PickedUp)
-                .column(ItemTotals.Used)
-                .column(ItemTotals.Crafted)
-                .column(ItemTotals.Broken)
-                .column(ItemTotals.Smelted)
-                .column(ItemTotals.Enchanted)
-                .column(ItemTotals.Repaired)
-                .condition(ItemTotals.PlayerId, playerId)
-                .condition(ItemTotals.MaterialId, MaterialCache.parse(stack))
-                .select();
-        
-        if(result == null) {
-            Query.table(ItemTotals.TableName)
-                .value(ItemTotals.PlayerId, playerId)
-                .value(ItemTotals.MaterialId, MaterialCache.parse(stack))
-                .value(ItemTotals.Dropped, dropped)
-                .value(ItemTotals.PickedUp, pickedUp)
-                .value(ItemTotals.Used, consumed)
-                .value(ItemTotals.Crafted, crafted)
-                .value(ItemTotals.Broken, broken)
-                .value(ItemTotals.Smelted, smelted)
-                .value(ItemTotals.Enchanted, enchanted)
-                .value(ItemTotals.Repaired, repaired)
-                .insert();
-        } else {
-            dropped = result.asInt(ItemTotals.Dropped);
-            pickedUp = result.asInt(ItemTotals.PickedUp);
-            consumed = result.asInt(ItemTotals.Used);
-            crafted = result.asInt(ItemTotals.Crafted);
-            broken = result.asInt(ItemTotals.Broken);
-            smelted = result.asInt(ItemTotals.Smelted);
-            enchanted = result.asInt(ItemTotals.Enchanted);
-            repaired = result.asInt(ItemTotals.Repaired);
-        }
-    }
+    @Deprecated
+    public void fetchData(int playerId) { }
 
     @Override
     public boolean pushData(int playerId) {
+        int[] delta;
+        synchronized(this) {
+            delta = new int[] {dropped, pickedUp, consumed, crafted, broken, smelted, enchanted, repaired};
+        }
+        boolean changed = false;
+        for(int value : delta) if(value != 0) changed = true;
+        if(!changed) return true;
+        
         boolean result = Query.table(ItemTotals.TableName)
-                .value(ItemTotals.Dropped, dropped)
-                .value(ItemTotals.PickedUp, pickedUp)
-                .value(ItemTotals.Used, consumed)
-                .value(ItemTotals.Crafted, crafted)
-                .value(ItemTotals.Broken, broken)
-                .value(ItemTotals.Smelted, smelted)
-                .value(ItemTotals.Enchanted, enchanted)
-                .value(ItemTotals.Repaired, repaired)
+                .increment(ItemTotals.Dropped, delta[0])
+                .increment(ItemTotals.PickedUp, delta[1])
+                .increment(ItemTotals.Used, delta[2])
+                .increment(ItemTotals.Crafted, delta[3])
+                .increment(ItemTotals.Broken, delta[4])
+                .increment(ItemTotals.Smelted, delta[5])
+                .increment(ItemTotals.Enchanted, delta[6])
+                .increment(ItemTotals.Repaired, delta[7])
                 .condition(ItemTotals.PlayerId, playerId)
                 .condition(ItemTotals.MaterialId, MaterialCache.parse(stack))
-                .update(RemoteConfiguration.MergedDataTracking.asBoolean());
-        fetchData(playerId);
-        return result;
+                .upsert();
+        if(!result) return false;
+        
+        synchronized(this) {
+            dropped -= delta[0];
+            pickedUp -= delta[1];
+            consumed -= delta[2];
+            crafted -= delta[3];
+            broken -= delta[4];
+            smelted -= delta[5];
+            enchanted -= delta[6];
+            repaired -= delta[7];
+        }
+        return true;
     }
     
     @Override
-    public void clearData(int playerId) {
+    public synchronized void clearData(int playerId) {
         dropped = 0;
         pickedUp = 0;
         consumed = 0;
@@ -145,6 +122,11 @@ public class TotalItemStats extends NormalData {
         repaired = 0;
     }
     
+    @Override
+    public boolean isPersistent() {
+        return true;
+    }
+    
     /**
      * Checks if the ItemStack corresponds to this entry 
      * @param stack ItemStack to check
@@ -162,16 +144,18 @@ public class TotalItemStats extends NormalData {
      * Increments the number of items dropped
      * @param amount Number of items
      */
-    public void addDropped(int amount) {
+    public synchronized void addDropped(int amount) {
         dropped += amount;
+        markDirty();
     }
     
     /**
      * Increments the number of items picked up
      * @param amount Number of items
      */
-    public void addPickedUp(int amount) {
+    public synchronized void addPickedUp(int amount) {
         pickedUp += amount;
+        markDirty();
     }
     
     /**
@@ -179,40 +163,45 @@ public class TotalItemStats extends NormalData {
      * Currently only tracks food consumption
      * @param amount Number of items
      */
-    public void addConsumed() {
+    public synchronized void addConsumed() {
         consumed += 1;
+        markDirty();
     }
     
     /**
      * Increments the number of items crafted
      * @param amount Number of items
      */
-    public void addCrafted(int amount) {
+    public synchronized void addCrafted(int amount) {
         crafted += amount;
+        markDirty();
     }
     
     /**
      * Increments the number of tools broken
      * @param amount Number of items
      */
-    public void addBroken(int amount) {
+    public synchronized void addBroken(int amount) {
         broken += amount;
+        markDirty();
     }
     
     /**
      * Increments the number of items smelted
      * @param amount Number of items
      */
-    public void addSmelted(int amount) {
+    public synchronized void addSmelted(int amount) {
         smelted += amount;
+        markDirty();
     }
     
     /**
      * Increments the number of items enchanted
      * @param amount Number of items
      */
-    public void addEnchanted(int amount) {
+    public synchronized void addEnchanted(int amount) {
         enchanted += amount;
+        markDirty();
     }
     
     /**
@@ -24,13 +24,11 @@ import lombok.AccessLevel;
 import lombok.Getter;
 
 import com.wolvencraft.yasp.db.Query;
-import com.wolvencraft.yasp.db.Query.QueryResult;
 import com.wolvencraft.yasp.db.data.NormalData;
 import com.wolvencraft.yasp.db.tables.Normal.PlayerDistance;
-import com.wolvencraft.yasp.settings.RemoteConfiguration;
 
 /**
- * Represents the distances a player traveled.
+ * Represents the distances a player traveled since the last time they were pushed to the database.
  * Only one entry per player is allowed.
  * @author bitWolfy
  *
@@ -46,8 +44,8 @@ public class DistancePlayerEntry extends NormalData {
     private double ride;
     
     /**
-     * Default constructor. Takes in the Player object and pulls corresponding values from the remote database.<br />
-     * If no data is found in the database, the default values are inserted.
+     * Default constructor. Creates an empty entry for the player.<br />
+     * If no data is found in the database, the row is created on the first sync.
      * @param playerId ID of the tracked player
      */
     public DistancePlayerEntry(int playerId) {
@@ -57,62 +55,49 @@ public class DistancePlayerEntry extends NormalData {
         boat = 0;
         minecart = 0;
         ride = 0;
-        
-        fetchData(playerId);
     }
     
+    /**
+     * Distances are pushed as increments, so the existing values are never read
+     */
     @Override
-    public void fetchData(int playerId) {
-        if(RemoteConfiguration.MergedDataTracking.asBoolean()) {
-            clearData(playerId);
-            return;
-        }
-        
-        QueryResult result = Query.table(PlayerDistance.TableName)
-                .column(PlayerDistance.Foot)
-                .column(PlayerDistance.Swim)
-                .column(PlayerDistance.Flight)
-                .column(PlayerDistance.Boat)
-                .column(PlayerDistance.Minecart)
-                .column(PlayerDistance.Ride)
-                .condition(PlayerDistance.PlayerId, playerId)
-                .select();
-        if(result == null) {
-            Query.table(PlayerDistance.TableName)
-                .value(PlayerDistance.PlayerId, playerId)
-                .value(PlayerDistance.Foot, foot)
-                .value(PlayerDistance.Swim, swim)
-                .value(PlayerDistance.Flight, flight)
-                .value(PlayerDistance.Boat, boat)
-                .value(PlayerDistance.Minecart, minecart)
-                .value(PlayerDistance.Ride, ride)
-                .insert();
-        } else {
-            foot = result.asInt(PlayerDistance.Foot);
-            swim = result.asInt(PlayerDistance.Swim);
-            flight = result.asInt(PlayerDistance.Flight);
-            boat = result.asInt(PlayerDistance.Boat);
-            minecart = result.asInt(PlayerDistance.Minecart);
-            ride = result.asInt(PlayerDistance.Ride);
-        }
-    }
+    @Deprecated
+    public void fetchData(int playerId) { }
 
     @Override
     public boolean pushData(int playerId) {
+        double[] delta;
+        synchronized(this) {
+            delta = new double[] {foot, swim, flight, boat, minecart, ride};
+        }
+        boolean changed = false;
+        for(double value : delta) if(value != 0) changed = true;
+        if(!changed) return true;
+        
         boolean result = Query.table(PlayerDistance.TableName)
-            .value(PlayerDistance.Foot, foot)
-            .value(PlayerDistance.Swim, swim)
-            .value(PlayerDistance.Flight, flight)
-            .value(PlayerDistance.Boat, boat)
-            .value(PlayerDistance.Minecart, minecart)
-            .value(PlayerDistance.Ride, ride)
+            .increment(PlayerDistance.Foot, delta[0])
+            .increment(PlayerDistance.Swim, delta[1])
+            .increment(PlayerDistance.Flight, delta[2])
+            .increment(PlayerDistance.Boat, delta[3])
+            .increment(PlayerDistance.Minecart, delta[4])
+            .increment(PlayerDistance.Ride, delta[5])
             .condition(PlayerDistance.PlayerId, playerId)
-            .update(RemoteConfiguration.MergedDataTracking.asBoolean());
-        return result;
+            .upsert();
+        if(!result) return false;
+        
+        synchronized(this) {
+            foot -= delta[0];
+            swim -= delta[1];
+            flight -= delta[2];
+            boat -= delta[3];
+            minecart -= delta[4];
+            ride -= delta[5];
+        }
+        return true;
     }
     
     @Override
-    public void clearData(int playerId) {
+    public synchronized void clearData(int playerId) {
         foot = 0;
         swim = 0;
         flight = 0;
@@ -126,7 +111,7 @@ public class DistancePlayerEntry extends NormalData {
      * @param type Travel type
      * @param distance Distance travelled
      */
-    public void addDistance(PlayerDistance type, double distance) {
+    public synchronized void addDistance(PlayerDistance type, double distance) {
         switch(type) {
             case Foot:
                 foot += distance;
@@ -149,5 +134,6 @@ public class DistancePlayerEntry extends NormalData {
             default:
                 break;
         }
+        markDirty();
     }
 }
@@ -21,6 +21,7 @@
 package com.wolvencraft.yasp.db.data.players;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.bukkit.Bukkit;
@@ -29,6 +30,8 @@ import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.PlayerInventory;
 
 import com.wolvencraft.yasp.db.Query;
+import com.wolvencraft.yasp.db.Query.CombinedQuery;
+import com.wolvencraft.yasp.db.Query.QueryResult;
 import com.wolvencraft.yasp.db.data.NormalData;
 import com.wolvencraft.yasp.db.tables.Normal.PlayerInv;
 import com.wolvencraft.yasp.settings.Constants.StatPerms;
@@ -42,25 +45,42 @@ import com.wolvencraft.yasp.util.serializable.InventorySerializable;
  */
 public class InventoryEntry extends NormalData {
     
+    private static final String ROW_EXISTS = "INVENTORY_ROW";
+    
     private final String playerName;
+    private String[] pushed;
+    private boolean created;
     
     /**
      * <b>Default constructor</b><br />
      * Creates a new InventoryData object based on arguments provided
      * @param playerId Player ID
+     * @param player Player object
+     * @param result Result of the combined query built with {@link #include(CombinedQuery, int)}, or <b>null</b> if it failed
      */
-    public InventoryEntry(int playerId, Player player) {
+    public InventoryEntry(int playerId, Player player, QueryResult result) {
         this.playerName = player.getName();
-        fetchData(playerId);
+        this.pushed = null;
+        this.created = result != null && result.asInt(ROW_EXISTS) != -1;
+    }
+    
+    /**
+     * Adds the check for the player's inventory row to the combined query
+     * @param query Combined query
+     * @param playerId Player ID
+     * @return Combined query
+     */
+    public static CombinedQuery include(CombinedQuery query, int playerId) {
+        return query.value(ROW_EXISTS, Query.table(PlayerInv.TableName).column(PlayerInv.PlayerId).condition(PlayerInv.PlayerId, playerId));
     }
     
+    /**
+     * Creates the player's inventory row, unless the combined query has found one
+     */
     @Override
     public void fetchData(int playerId) {
-        if(Query.table(PlayerInv.TableName)
-                .column(PlayerInv.PlayerId)
-                .condition(PlayerInv.PlayerId, playerId)
-                .exists()) return;
-        Query.table(PlayerInv.TableName)
+        if(created) return;
+        created = Query.table(PlayerInv.TableName)
             .value(PlayerInv.PlayerId, playerId)
             .insert();
     }
@@ -69,11 +89,20 @@ public class InventoryEntry extends NormalData {
     @Deprecated
     public void clearData(int playerId) { }
     
+    /**
+     * The inventory is not tracked by events, so it is compared to the last pushed contents on every sync instead
+     */
+    @Override
+    public boolean pushChanges(int playerId) {
+        return pushData(playerId);
+    }
+    
     @Override
     public boolean pushData(int playerId) {
         Player player = Bukkit.getPlayerExact(playerName);
         if(player == null) return false;
         if(!StatPerms.PlayerInventory.has(player)) return false;
+        fetchData(playerId);
         
         PlayerInventory inv = player.getInventory();
         List<ItemStack> invRow = new ArrayList<ItemStack>();
@@ -102,7 +131,10 @@ public class InventoryEntry extends NormalData {
         
         String potionEffects = EffectsSerializable.serialize(player.getActivePotionEffects());
         
-        Query.table(PlayerInv.TableName)
+        String[] contents = new String[] { armor, rowOne, rowTwo, rowThree, hotbar, potionEffects };
+        if(Arrays.equals(contents, pushed)) return true;
+        
+        boolean result = Query.table(PlayerInv.TableName)
             .value(PlayerInv.Armor, armor)
             .value(PlayerInv.RowOne, rowOne)
             .value(PlayerInv.RowTwo, rowTwo)
@@ -112,6 +144,7 @@ public class InventoryEntry extends NormalData {
             .value(PlayerInv.PotionEffects, potionEffects)
             .condition(PlayerInv.PlayerId, playerId)
             .update();
-        return false;
+        if(result) pushed = contents;
+        return result;
     }
 }
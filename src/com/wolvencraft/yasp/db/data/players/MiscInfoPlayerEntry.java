@@ -23,39 +23,47 @@ package com.wolvencraft.yasp.db.data.players;
 import java.net.InetAddress;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Map.Entry;
 
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 
 import com.wolvencraft.yasp.db.Query;
+import com.wolvencraft.yasp.db.Query.CombinedQuery;
+import com.wolvencraft.yasp.db.Query.DatabaseQuery;
 import com.wolvencraft.yasp.db.Query.QueryResult;
 import com.wolvencraft.yasp.db.data.NormalData;
 import com.wolvencraft.yasp.db.tables.DBTable;
 import com.wolvencraft.yasp.db.tables.Normal.PlayerData;
-import com.wolvencraft.yasp.settings.RemoteConfiguration;
 import com.wolvencraft.yasp.util.Util;
 import com.wolvencraft.yasp.util.cache.OnlineSessionCache;
 
 /**
- * Represents all the miscellaneous information that does not fit any other category
+ * Represents all the miscellaneous information that does not fit any other category.<br />
+ * Player state is pushed as it is, while the counters only hold the amounts gathered since the last push.
  * @author bitWolfy
  *
  */
 public class MiscInfoPlayerEntry extends NormalData {
 
+    private static final String MAX_KILL_STREAK = "MISC_MAX_KILL_STREAK";
+    
     private final String playerName;
     private Map<DBTable, Object> values;
+    private Map<PlayerData, Double> deltas;
     
     /**
      * <b>Default constructor</b><br />
      * Creates a new MiscInfoPlayers object based on arguments provided
      * @param playerId Player ID
      * @param player Player object
+     * @param result Result of the combined query built with {@link #include(CombinedQuery, int)}, or <b>null</b> if it failed
      */
-    public MiscInfoPlayerEntry(int playerId, Player player) {
+    public MiscInfoPlayerEntry(int playerId, Player player, QueryResult result) {
         playerName = player.getName();
         
         values = new HashMap<DBTable, Object>();
+        deltas = new HashMap<PlayerData, Double>();
         
         if(player.isOp()) values.put(PlayerData.IsOp, 1);
         else values.put(PlayerData.IsOp, 0);
@@ -75,81 +83,79 @@ public class MiscInfoPlayerEntry extends NormalData {
         values.put(PlayerData.HealthLevel, player.getHealth());
         values.put(PlayerData.ArmorLevel, Util.getArmorRating(player.getInventory()));
         
-        values.put(PlayerData.ExpTotal,0);
-        values.put(PlayerData.FishCaught, 0);
-        values.put(PlayerData.TimesKicked, 0);
-        values.put(PlayerData.EggsThrown, 0);
-        values.put(PlayerData.FoodEaten, 0);
-        values.put(PlayerData.ArrowsShot, 0);
-        values.put(PlayerData.DamageTaken, 0);
-        values.put(PlayerData.BedsEntered, 0);
-        values.put(PlayerData.PortalsEntered, 0);
-        values.put(PlayerData.WordsSaid, 0);
-        values.put(PlayerData.CommandsSent, 0);
-        values.put(PlayerData.TimesJumped, 0);
-        
         values.put(PlayerData.CurKillStreak, 0);
         values.put(PlayerData.MaxKillStreak, 0);
         
-        fetchData(playerId);
+        if(result != null) values.put(PlayerData.MaxKillStreak, Math.max(0, result.asInt(MAX_KILL_STREAK)));
+    }
+    
+    /**
+     * Adds the longest kill streak to the combined query
+     * @param query Combined query
+     * @param playerId Player ID
+     * @return Combined query
+     */
+    public static CombinedQuery include(CombinedQuery query, int playerId) {
+        return query.value(MAX_KILL_STREAK, Query.table(PlayerData.TableName).column(PlayerData.MaxKillStreak).condition(PlayerData.PlayerId, playerId));
     }
     
+    /**
+     * Reads the longest kill streak, since it is the only value that depends on the one stored in the database.<br />
+     * The counters are pushed as increments and are never read back.
+     */
     @Override
     public void fetchData(int playerId) {
-        if(RemoteConfiguration.MergedDataTracking.asBoolean()) {
-            clearData(playerId);
-            return;
-        }
-        
         QueryResult result = Query.table(PlayerData.TableName)
+            .column(PlayerData.MaxKillStreak)
             .condition(PlayerData.PlayerId, playerId)
             .select();
-        if(result == null) {
-            Query.table(PlayerData.TableName)
-                .value(PlayerData.PlayerId, playerId)
-                .valueRaw(values)
-                .insert();
-        } else {
-            values.put(PlayerData.ExpTotal, result.asInt(PlayerData.ExpTotal));
-            values.put(PlayerData.FishCaught, result.asInt(PlayerData.FishCaught));
-            values.put(PlayerData.TimesKicked, result.asInt(PlayerData.TimesKicked));
-            values.put(PlayerData.EggsThrown, result.asInt(PlayerData.EggsThrown));
-            values.put(PlayerData.FoodEaten, result.asInt(PlayerData.FoodEaten));
-            values.put(PlayerData.ArrowsShot, result.asInt(PlayerData.ArrowsShot));
-            values.put(PlayerData.DamageTaken, result.asDouble(PlayerData.DamageTaken));
-            values.put(PlayerData.BedsEntered, result.asInt(PlayerData.BedsEntered));
-            values.put(PlayerData.PortalsEntered, result.asInt(PlayerData.PortalsEntered));
-            values.put(PlayerData.WordsSaid, result.asInt(PlayerData.WordsSaid));
-            values.put(PlayerData.CommandsSent, result.asInt(PlayerData.CommandsSent));
-            values.put(PlayerData.MaxKillStreak, result.asInt(PlayerData.MaxKillStreak));
-            values.put(PlayerData.TimesJumped, result.asInt(PlayerData.TimesJumped));
-        }
+        if(result == null) return;
+        
+        synchronized(this) { values.put(PlayerData.MaxKillStreak, result.asInt(PlayerData.MaxKillStreak)); }
+    }
+    
+    /**
+     * Refreshes the player data first, since it is not tracked by events
+     */
+    @Override
+    public boolean pushChanges(int playerId) {
+        refreshPlayerData();
+        return super.pushChanges(playerId);
     }
 
+    /**
+     * Pushes the values as they are; the player data is refreshed by {@link #pushChanges(int)}
+     */
     @Override
     public boolean pushData(int playerId) {
-        refreshPlayerData();
-        boolean result = Query.table(PlayerData.TableName)
-            .valueRaw(values)
-            .condition(PlayerData.PlayerId, playerId)
-            .update(RemoteConfiguration.MergedDataTracking.asBoolean());
-        fetchData(playerId);
-        return result;
+        Map<DBTable, Object> state;
+        Map<PlayerData, Double> pushed;
+        synchronized(this) {
+            state = new HashMap<DBTable, Object>(values);
+            pushed = new HashMap<PlayerData, Double>(deltas);
+        }
+        
+        DatabaseQuery query = Query.table(PlayerData.TableName);
+        for(Entry<DBTable, Object> entry : state.entrySet()) {
+            if(entry.getKey() == PlayerData.MaxKillStreak) query.maximum(PlayerData.MaxKillStreak, (Integer) entry.getValue());
+            else query.value(entry.getKey(), entry.getValue());
+        }
+        for(Entry<PlayerData, Double> entry : pushed.entrySet()) query.increment(entry.getKey(), entry.getValue());
+        
+        if(!query.condition(PlayerData.PlayerId, playerId).upsert()) return false;
+        
+        synchronized(this) {
+            for(Entry<PlayerData, Double> entry : pushed.entrySet()) {
+                double left = deltas.get(entry.getKey()) - entry.getValue();
+                if(left == 0) deltas.remove(entry.getKey());
+                else deltas.put(entry.getKey(), left);
+            }
+        }
+        return true;
     }
     
-    public void clearData(int playerId) {
-        values.put(PlayerData.ExpTotal, 0);
-        values.put(PlayerData.FishCaught, 0);
-        values.put(PlayerData.TimesKicked, 0);
-        values.put(PlayerData.EggsThrown, 0);
-        values.put(PlayerData.FoodEaten, 0);
-        values.put(PlayerData.ArrowsShot, 0);
-        values.put(PlayerData.DamageTaken, 0);
-        values.put(PlayerData.BedsEntered, 0);
-        values.put(PlayerData.PortalsEntered, 0);
-        values.put(PlayerData.WordsSaid, 0);
-        values.put(PlayerData.CommandsSent, 0);
-        values.put(PlayerData.TimesJumped, 0);
+    public synchronized void clearData(int playerId) {
+        deltas.clear();
         
         values.put(PlayerData.CurKillStreak, 0);
         values.put(PlayerData.MaxKillStreak, 0);
@@ -162,18 +168,28 @@ public class MiscInfoPlayerEntry extends NormalData {
         Player player = Bukkit.getServer().getPlayerExact(playerName);
         if(player == null) return;
 
-        if(player.isOp()) values.put(PlayerData.IsOp, 1);
-        else values.put(PlayerData.IsOp, 0);
-        if(player.isBanned()) values.put(PlayerData.IsBanned, 1);
-        else values.put(PlayerData.IsBanned, 0);
-        values.put(PlayerData.PlayerIp, player.getAddress().getAddress().getHostAddress());
+        if(player.isOp()) setValue(PlayerData.IsOp, 1);
+        else setValue(PlayerData.IsOp, 0);
+        if(player.isBanned()) setValue(PlayerData.IsBanned, 1);
+        else setValue(PlayerData.IsBanned, 0);
+        setValue(PlayerData.PlayerIp, player.getAddress().getAddress().getHostAddress());
         
-        values.put(PlayerData.Gamemode, player.getGameMode().getValue());
-        values.put(PlayerData.ExpPercent, player.getExp());
-        values.put(PlayerData.ExpLevel, player.getLevel());
-        values.put(PlayerData.FoodLevel, player.getFoodLevel());
-        values.put(PlayerData.HealthLevel, player.getHealth());
-        values.put(PlayerData.ArmorLevel, Util.getArmorRating(player.getInventory()));
+        setValue(PlayerData.Gamemode, player.getGameMode().getValue());
+        setValue(PlayerData.ExpPercent, player.getExp());
+        setValue(PlayerData.ExpLevel, player.getLevel());
+        setValue(PlayerData.FoodLevel, player.getFoodLevel());
+        setValue(PlayerData.HealthLevel, player.getHealth());
+        setValue(PlayerData.ArmorLevel, Util.getArmorRating(player.getInventory()));
+    }
+    
+    /**
+     * Sets the value of the statistic, marking the entry as changed if the value is different
+     * @param type Statistic type
+     * @param value New value
+     */
+    private synchronized void setValue(DBTable type, Object value) {
+        Object old = values.put(type, value);
+        if(old == null ? value != null : !old.equals(value)) markDirty();
     }
     
     /**
@@ -181,14 +197,7 @@ public class MiscInfoPlayerEntry extends NormalData {
      * @param type Statistic type
      */
     public void incrementStat(PlayerData type) {
-        double value = 1;
-        if(values.containsKey(type)) {
-            Object valueObj = values.get(type);
-            if(valueObj instanceof Double)
-                value = ((Double) valueObj).doubleValue() + 1;
-            else value = ((Integer) valueObj).doubleValue() + 1;
-        }
-        values.put(type, value);
+        incrementStat(type, 1);
     }
     
     /**
@@ -196,14 +205,10 @@ public class MiscInfoPlayerEntry extends NormalData {
      * @param type Statistic type
      * @param value Amount
      */
-    public void incrementStat(PlayerData type, double value) {
-        if(values.containsKey(type)) {
-            Object valueObj = values.get(type);
-            if(valueObj instanceof Double)
-                value += ((Double) valueObj).doubleValue();
-            else value += ((Integer) valueObj).doubleValue();
-        }
-        values.put(type, value);
+    public synchronized void incrementStat(PlayerData type, double value) {
+        Double delta = deltas.get(type);
+        deltas.put(type, delta == null ? value : delta.doubleValue() + value);
+        markDirty();
     }
     
     /**
@@ -212,25 +217,27 @@ public class MiscInfoPlayerEntry extends NormalData {
      */
     public void killed(Player player) {
         OnlineSessionCache.fetch(player).died();
-        int curKillStreak = ((Integer) values.get(PlayerData.CurKillStreak)).intValue() + 1;
-        int maxKillStreak = ((Integer) values.get(PlayerData.MaxKillStreak)).intValue();
-        values.put(PlayerData.CurKillStreak, curKillStreak);
-        if(curKillStreak > maxKillStreak) {
-            maxKillStreak++;
-            values.put(PlayerData.MaxKillStreak, maxKillStreak);
+        synchronized(this) {
+            int curKillStreak = ((Integer) values.get(PlayerData.CurKillStreak)).intValue() + 1;
+            int maxKillStreak = ((Integer) values.get(PlayerData.MaxKillStreak)).intValue();
+            setValue(PlayerData.CurKillStreak, curKillStreak);
+            if(curKillStreak > maxKillStreak) {
+                maxKillStreak++;
+                setValue(PlayerData.MaxKillStreak, maxKillStreak);
+            }
         }
     }
     
     /**
      * Logs player being killed by mobs or natural causes
      */
-    public void died() {
+    public synchronized void died() {
         int curKillStreak = ((Integer) values.get(PlayerData.CurKillStreak)).intValue();
         int maxKillStreak = ((Integer) values.get(PlayerData.MaxKillStreak)).intValue();
         if(curKillStreak > maxKillStreak) {
             maxKillStreak++;
-            values.put(PlayerData.MaxKillStreak, maxKillStreak);
+            setValue(PlayerData.MaxKillStreak, maxKillStreak);
         }
-        values.put(PlayerData.CurKillStreak, 0);
+        setValue(PlayerData.CurKillStreak, 0);
     }
 }
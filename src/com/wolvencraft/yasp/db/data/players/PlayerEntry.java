@@ -26,6 +26,8 @@ import lombok.Getter;
 import org.bukkit.entity.Player;
 
 import com.wolvencraft.yasp.db.Query;
+import com.wolvencraft.yasp.db.Query.CombinedQuery;
+import com.wolvencraft.yasp.db.Query.DatabaseQuery;
 import com.wolvencraft.yasp.db.Query.QueryResult;
 import com.wolvencraft.yasp.db.data.NormalData;
 import com.wolvencraft.yasp.db.tables.Normal.PlayerStats;
@@ -39,53 +41,75 @@ import com.wolvencraft.yasp.util.Util;
  */
 public class PlayerEntry extends NormalData {
     
+    private static final String FIRST_LOGIN = "PLAYER_FIRST_LOGIN";
+    private static final String PLAYTIME = "PLAYER_PLAYTIME";
+    private static final String LONGEST_SESSION = "PLAYER_LONGEST_SESSION";
+    
     private final String username;
     private final String uuid;
     private long lastSync;
+    private long unpushedPlaytime;
     
     @Getter(AccessLevel.PUBLIC) private long longestSession;
     @Getter(AccessLevel.PUBLIC) private long currentSession;
     
     @Getter(AccessLevel.PUBLIC) private long totalPlaytime;
     
-    public PlayerEntry (int playerId, Player player) {
+    private final long loginTime;
+    private final boolean firstLogin;
+    
+    /**
+     * <b>Default constructor</b><br />
+     * Creates a new PlayerEntry from the values read by {@link #include(CombinedQuery, int)}.<br />
+     * The player's row is created by the PlayerCache, so nothing is written here; the login is recorded by {@link #login(int)}.
+     * @param playerId Player ID
+     * @param player Player object
+     * @param result Result of the combined query, or <b>null</b> if it failed
+     */
+    public PlayerEntry (int playerId, Player player, QueryResult result) {
         username = player.getName();
         uuid = player.getUniqueId().toString();
         lastSync = Util.getTimestamp();
+        loginTime = lastSync;
         
         currentSession = 0;
         longestSession = 0;
+        totalPlaytime = 0;
+        unpushedPlaytime = 0;
         
-        long firstLogin = lastSync;
-        int logins = 0;
-        
-        QueryResult result = Query.table(PlayerStats.TableName)
-            .column(PlayerStats.Logins)
-            .column(PlayerStats.FirstLogin)
-            .column(PlayerStats.Playtime)
-            .column(PlayerStats.LongestSession)
-            .condition(PlayerStats.PlayerId, playerId)
-            .select();
-        
-        if(result == null) {
-            Query.table(PlayerStats.TableName)
-                 .value(PlayerStats.Name, username)
-                 .value(PlayerStats.UUID, uuid)
-                 .insert();
-        } else {
-            firstLogin = result.asLong(PlayerStats.FirstLogin);
-            if(firstLogin == -1) { firstLogin = lastSync; }
-            logins = result.asInt(PlayerStats.Logins);
-            this.totalPlaytime = result.asLong(PlayerStats.Playtime);
-            longestSession = result.asLong(PlayerStats.LongestSession);
+        if(result != null) {
+            totalPlaytime = Math.max(0, result.asLong(PLAYTIME));
+            longestSession = Math.max(0, result.asLong(LONGEST_SESSION));
         }
-        
-        Query.table(PlayerStats.TableName)
-            .value(PlayerStats.LoginTime, lastSync)
-            .value(PlayerStats.FirstLogin, firstLogin)
-            .value(PlayerStats.Logins, ++logins)
-            .condition(PlayerStats.PlayerId, playerId)
-            .update();
+        firstLogin = result != null && result.asLong(FIRST_LOGIN) == -1;
+    }
+    
+    /**
+     * Adds the values the entry is created from to the combined query
+     * @param query Combined query
+     * @param playerId Player ID
+     * @return Combined query
+     */
+    public static CombinedQuery include(CombinedQuery query, int playerId) {
+        return query
+            .value(FIRST_LOGIN, Query.table(PlayerStats.TableName).column(PlayerStats.FirstLogin).condition(PlayerStats.PlayerId, playerId))
+            .value(PLAYTIME, Query.table(PlayerStats.TableName).column(PlayerStats.Playtime).condition(PlayerStats.PlayerId, playerId))
+            .value(LONGEST_SESSION, Query.table(PlayerStats.TableName).column(PlayerStats.LongestSession).condition(PlayerStats.PlayerId, playerId));
+    }
+    
+    /**
+     * Records the login and marks the player as online.<br />
+     * The login counter is incremented in place, so the stored value does not have to be read first.
+     * @param playerId Player ID
+     * @return <b>true</b> if the login was recorded, <b>false</b> if an error occurred
+     */
+    public boolean login(int playerId) {
+        DatabaseQuery query = Query.table(PlayerStats.TableName)
+            .value(PlayerStats.LoginTime, loginTime)
+            .value(PlayerStats.Online, true)
+            .increment(PlayerStats.Logins, 1);
+        if(firstLogin) query.value(PlayerStats.FirstLogin, loginTime);
+        return query.condition(PlayerStats.PlayerId, playerId).update();
     }
     
     @Override
@@ -96,18 +120,40 @@ public class PlayerEntry extends NormalData {
     @Deprecated
     public void clearData(int playerId) { }
     
+    /**
+     * Playtime keeps changing while the player is online, so the entry is pushed on every sync
+     */
+    @Override
+    public boolean pushChanges(int playerId) {
+        return pushData(playerId);
+    }
+    
+    /**
+     * Pushes the playtime gathered since the last successful push as an increment, and the longest session as a maximum,
+     * so that servers that share the database do not overwrite each other's values
+     */
     @Override
     public boolean pushData(int playerId) {
-        currentSession += Util.getTimestamp() - lastSync;
-        if(longestSession < currentSession) longestSession = currentSession;
-        totalPlaytime += Util.getTimestamp() - lastSync;
-        lastSync = Util.getTimestamp();
+        long playtime, longest;
+        synchronized(this) {
+            long now = Util.getTimestamp();
+            currentSession += now - lastSync;
+            if(longestSession < currentSession) longestSession = currentSession;
+            totalPlaytime += now - lastSync;
+            unpushedPlaytime += now - lastSync;
+            lastSync = now;
+            
+            playtime = unpushedPlaytime;
+            longest = longestSession;
+        }
         
-        return Query.table(PlayerStats.TableName)
-            .value(PlayerStats.Playtime, totalPlaytime)
-            .value(PlayerStats.LongestSession, longestSession)
+        boolean result = Query.table(PlayerStats.TableName)
+            .increment(PlayerStats.Playtime, playtime)
+            .maximum(PlayerStats.LongestSession, longest)
             .condition(PlayerStats.PlayerId, playerId)
             .update();
+        if(result) synchronized(this) { unpushedPlaytime -= playtime; }
+        return result;
     }
     
 }
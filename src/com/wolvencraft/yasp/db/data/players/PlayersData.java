@@ -21,12 +21,20 @@
 package com.wolvencraft.yasp.db.data.players;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.bukkit.Location;
 import org.bukkit.entity.Player;
 
+import com.wolvencraft.yasp.db.Query;
+import com.wolvencraft.yasp.db.Query.CombinedQuery;
+import com.wolvencraft.yasp.db.Query.DatabaseQuery;
+import com.wolvencraft.yasp.db.Query.QueryResult;
 import com.wolvencraft.yasp.db.data.DetailedData;
+import com.wolvencraft.yasp.db.data.EventBuffer;
 import com.wolvencraft.yasp.settings.Module;
 
 /**
@@ -42,55 +50,84 @@ public class PlayersData {
     private MiscInfoPlayerEntry miscData;
     private InventoryEntry inventoryData;
     
-    private List<DetailedData> detailedData;
+    private EventBuffer<DetailedData> detailedData;
     
     /**
      * <b>Default constructor</b><br />
      * Creates a new PlayersData object based on the data provided
      * @param player Player object
      * @param playerId Player ID
+     * @param result Result of the combined query built with {@link #include(CombinedQuery, int)}, or <b>null</b> if it failed
      */
-    public PlayersData(Player player, int playerId) {
+    public PlayersData(Player player, int playerId, QueryResult result) {
         this.playerId = playerId;
-        generalData = new PlayerEntry(playerId, player);
+        generalData = new PlayerEntry(playerId, player, result);
         distanceData = new DistancePlayerEntry(playerId);
-        miscData = new MiscInfoPlayerEntry(playerId, player);
-        if(Module.Inventory.isEnabled()) inventoryData = new InventoryEntry(playerId, player);
+        miscData = new MiscInfoPlayerEntry(playerId, player, result);
+        if(Module.Inventory.isEnabled()) inventoryData = new InventoryEntry(playerId, player, result);
         
-        detailedData = new ArrayList<DetailedData>();
+        detailedData = new EventBuffer<DetailedData>(playerId);
     }
     
     /**
-     * Returns a static copy of DetailedData to prevent ConcurrentModificationException occurrences
-     * @return List of DetailedData objects
+     * Adds the values that the player's entries are created from to the combined query,
+     * so that they are read in the same round trip as the player's totals
+     * @param query Combined query
+     * @param playerId Player ID
+     * @return Combined query
+     */
+    public static CombinedQuery include(CombinedQuery query, int playerId) {
+        PlayerEntry.include(query, playerId);
+        MiscInfoPlayerEntry.include(query, playerId);
+        if(Module.Inventory.isEnabled()) InventoryEntry.include(query, playerId);
+        return query;
+    }
+    
+    /**
+     * Records the player's login, and creates the rows that are updated in place if they do not exist yet.<br />
+     * Nothing that is read on join depends on these writes, so they can run after the session is ready.
      */
-    private List<DetailedData> getDetailedData() {
-        List<DetailedData> temp = new ArrayList<DetailedData>();
-        for(DetailedData value : detailedData) temp.add(value);
-        return temp;
+    public void login() {
+        generalData.login(playerId);
+        if(Module.Inventory.isEnabled()) inventoryData.fetchData(playerId);
     }
     
     /**
-     * Pushes the data to the database
+     * Pushes the data to the database.<br />
+     * Entries that have not changed since the last sync are skipped.
      */
     public void sync() {
-        generalData.pushData(playerId);
-        distanceData.pushData(playerId);
-        miscData.pushData(playerId);
-        if(Module.Inventory.isEnabled()) inventoryData.pushData(playerId);
+        generalData.pushChanges(playerId);
+        distanceData.pushChanges(playerId);
+        miscData.pushChanges(playerId);
+        if(Module.Inventory.isEnabled()) inventoryData.pushChanges(playerId);
+        
+        List<DetailedData> batch = detailedData.drain();
+        if(batch.isEmpty()) return;
         
-        for(DetailedData entry : getDetailedData()) {
-            if(entry.pushData(playerId)) { detailedData.remove(entry); }
+        Map<DetailedData, DatabaseQuery> queries = new LinkedHashMap<DetailedData, DatabaseQuery>();
+        for(DetailedData entry : batch) {
+            queries.put(entry, entry.getInsertQuery(playerId));
         }
+        Set<DetailedData> inserted = Query.insertBatch(queries);
+        List<DetailedData> failed = new ArrayList<DetailedData>();
+        for(DetailedData entry : batch) if(!inserted.contains(entry)) failed.add(entry);
+        detailedData.requeue(failed);
+    }
+    
+    /**
+     * Returns the number of player log entries waiting to be synchronized
+     * @return Number of pending entries
+     */
+    public int getPendingCount() {
+        return detailedData.size();
     }
     
     /**
      * Erases all locally stored data
      */
     public void dump() {
-        for(DetailedData entry : getDetailedData()) {
-            detailedData.remove(entry);
-        }
+        detailedData.clear();
     }
     
     /**
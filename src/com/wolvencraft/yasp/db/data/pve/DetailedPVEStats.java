@@ -30,6 +30,7 @@ import org.bukkit.inventory.ItemStack;
 import org.bukkit.material.MaterialData;
 
 import com.wolvencraft.yasp.db.Query;
+import com.wolvencraft.yasp.db.Query.DatabaseQuery;
 import com.wolvencraft.yasp.db.data.DetailedData;
 import com.wolvencraft.yasp.db.tables.Detailed.PlayerKillsPVE;
 import com.wolvencraft.yasp.util.Util;
@@ -75,7 +76,7 @@ public class DetailedPVEStats {
         }
         
         @Override
-        public boolean pushData(int playerId) {
+        public DatabaseQuery getInsertQuery(int playerId) {
             return Query.table(PlayerKillsPVE.TableName)
                     .value(PlayerKillsPVE.PlayerId, playerId)
                     .value(PlayerKillsPVE.CreatureId, EntityCache.parse(creatureType))
@@ -85,8 +86,7 @@ public class DetailedPVEStats {
                     .value(PlayerKillsPVE.XCoord, location.getBlockX())
                     .value(PlayerKillsPVE.YCoord, location.getBlockY())
                     .value(PlayerKillsPVE.ZCoord, location.getBlockZ())
-                    .value(PlayerKillsPVE.Timestamp, timestamp)
-                    .insert();
+                    .value(PlayerKillsPVE.Timestamp, timestamp);
         }
     }
 }
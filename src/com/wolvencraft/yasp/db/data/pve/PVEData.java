@@ -30,6 +30,7 @@ import com.wolvencraft.yasp.db.data.pve.DetailedPVEStats.PVEEntry;
 import com.wolvencraft.yasp.events.player.TrackedPVEEvent;
 import com.wolvencraft.yasp.session.OnlineSession;
 import com.wolvencraft.yasp.settings.Module;
+import com.wolvencraft.yasp.util.cache.MaterialCache;
 
 /**
  * Data store that handles all PVE statistics on the server
@@ -50,12 +51,10 @@ public class PVEData extends DataStore<TotalPVEStats, PVEEntry> {
      * @return Corresponding entry
      */
     public TotalPVEStats getNormalData(EntityType type, ItemStack weapon) {
-        for(TotalPVEStats entry : getNormalData()) {
-            if(entry.equals(type, weapon)) return entry;
-        }
-        TotalPVEStats entry = new TotalPVEStats(session.getId(), type, weapon);
-        normalData.add(entry);
-        return entry;
+        String key = type.name() + "/" + MaterialCache.getKey(weapon);
+        TotalPVEStats entry = normalData.get(key);
+        if(entry != null) return entry;
+        return putNormalData(key, new TotalPVEStats(session.getId(), type, weapon));
     }
     
     /**
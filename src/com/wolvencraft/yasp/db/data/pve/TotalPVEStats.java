@@ -24,10 +24,8 @@ import org.bukkit.entity.EntityType;
 import org.bukkit.inventory.ItemStack;
 
 import com.wolvencraft.yasp.db.Query;
-import com.wolvencraft.yasp.db.Query.QueryResult;
 import com.wolvencraft.yasp.db.data.NormalData;
 import com.wolvencraft.yasp.db.tables.Normal.PVETotals;
-import com.wolvencraft.yasp.settings.RemoteConfiguration;
 import com.wolvencraft.yasp.util.cache.EntityCache;
 import com.wolvencraft.yasp.util.cache.MaterialCache;
 
@@ -57,55 +55,49 @@ public class TotalPVEStats extends NormalData {
         this.weapon.setAmount(1);
         playerDeaths = 0;
         creatureDeaths = 0;
-        
-        fetchData(playerId);
     }
     
+    /**
+     * PVE totals are pushed as increments, so the existing values are never read
+     */
+    @Override
+    @Deprecated
+    public void fetchData(int playerId) { }
+
     @Override
-    public void fetchData(int playerId) {
-        if(RemoteConfiguration.MergedDataTracking.asBoolean()) {
-            clearData(playerId);
-            return;
+    public boolean pushData(int playerId) {
+        int playerDelta, creatureDelta;
+        synchronized(this) {
+            playerDelta = playerDeaths;
+            creatureDelta = creatureDeaths;
         }
+        if(playerDelta == 0 && creatureDelta == 0) return true;
         
-        QueryResult result = Query.table(PVETotals.TableName)
-                .column(PVETotals.PlayerKilled)
-                .column(PVETotals.CreatureKilled)
+        boolean result = Query.table(PVETotals.TableName)
+                .increment(PVETotals.PlayerKilled, playerDelta)
+                .increment(PVETotals.CreatureKilled, creatureDelta)
                 .condition(PVETotals.PlayerId, playerId)
                 .condition(PVETotals.CreatureId, EntityCache.parse(creatureType))
                 .condition(PVETotals.MaterialId, MaterialCache.parse(weapon))
-                .select();
-        if(result == null) {
-            Query.table(PVETotals.TableName)
-                .value(PVETotals.PlayerId, playerId)
-                .value(PVETotals.CreatureId, EntityCache.parse(creatureType))
-                .value(PVETotals.MaterialId, MaterialCache.parse(weapon))
-                .value(PVETotals.PlayerKilled, playerDeaths)
-                .value(PVETotals.CreatureKilled, creatureDeaths)
-                .insert();
-        } else {
-            playerDeaths = result.asInt(PVETotals.PlayerKilled);
-            creatureDeaths = result.asInt(PVETotals.CreatureKilled);
+                .upsert();
+        if(!result) return false;
+        
+        synchronized(this) {
+            playerDeaths -= playerDelta;
+            creatureDeaths -= creatureDelta;
         }
+        return true;
     }
 
     @Override
-    public boolean pushData(int playerId) {
-        boolean result = Query.table(PVETotals.TableName)
-                .value(PVETotals.PlayerKilled, playerDeaths)
-                .value(PVETotals.CreatureKilled, creatureDeaths)
-                .condition(PVETotals.PlayerId, playerId)
-                .condition(PVETotals.CreatureId, EntityCache.parse(creatureType))
-                .condition(PVETotals.MaterialId, MaterialCache.parse(weapon))
-                .update(RemoteConfiguration.MergedDataTracking.asBoolean());
-        fetchData(playerId);
-        return result;
+    public synchronized void clearData(int playerId) {
+        playerDeaths = 0;
+        creatureDeaths = 0;
     }
     
     @Override
-    public void clearData(int playerId) {
-        playerDeaths = 0;
-        creatureDeaths = 0;
+    public boolean isPersistent() {
+        return true;
     }
 
     /**
@@ -124,14 +116,16 @@ public class TotalPVEStats extends NormalData {
     /**
      * Increments the number of times the player has died
      */
-    public void addPlayerDeaths() {
+    public synchronized void addPlayerDeaths() {
         playerDeaths++;
+        markDirty();
     }
     
     /**
      * Increments the number of times the creature has died
      */
-    public void addCreatureDeaths() {
+    public synchronized void addCreatureDeaths() {
         creatureDeaths++;
+        markDirty();
     }
 }
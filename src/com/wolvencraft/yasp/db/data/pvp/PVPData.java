@@ -29,6 +29,7 @@ import com.wolvencraft.yasp.db.data.pvp.DetailedPVPStats.PVPEntry;
 import com.wolvencraft.yasp.events.player.TrackedPVPEvent;
 import com.wolvencraft.yasp.session.OnlineSession;
 import com.wolvencraft.yasp.settings.Module;
+import com.wolvencraft.yasp.util.cache.MaterialCache;
 import com.wolvencraft.yasp.util.cache.PlayerCache;
 
 /**
@@ -50,12 +51,10 @@ public class PVPData extends DataStore<TotalPVPStats, PVPEntry> {
      * @return Corresponding entry
      */
     public TotalPVPStats getNormalData(int victimId, ItemStack weapon) {
-        for(TotalPVPStats entry : getNormalData()) {
-            if(entry.equals(victimId, weapon)) return entry;
-        }
-        TotalPVPStats entry = new TotalPVPStats(session.getId(), victimId, weapon);
-        normalData.add(entry);
-        return entry;
+        String key = victimId + "/" + MaterialCache.getKey(weapon);
+        TotalPVPStats entry = normalData.get(key);
+        if(entry != null) return entry;
+        return putNormalData(key, new TotalPVPStats(session.getId(), victimId, weapon));
     }
     
     /**
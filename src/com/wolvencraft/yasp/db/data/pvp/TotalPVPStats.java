@@ -23,10 +23,8 @@ package com.wolvencraft.yasp.db.data.pvp;
 import org.bukkit.inventory.ItemStack;
 
 import com.wolvencraft.yasp.db.Query;
-import com.wolvencraft.yasp.db.Query.QueryResult;
 import com.wolvencraft.yasp.db.data.NormalData;
 import com.wolvencraft.yasp.db.tables.Normal.PVPTotals;
-import com.wolvencraft.yasp.settings.RemoteConfiguration;
 import com.wolvencraft.yasp.util.cache.MaterialCache;
 
 /**
@@ -53,52 +51,43 @@ public class TotalPVPStats extends NormalData {
         this.weapon = weapon.clone();
         this.weapon.setAmount(1);
         times = 0;
-        
-        fetchData(playerId);
     }
     
+    /**
+     * Kills are pushed as increments, so the existing total is never read
+     */
     @Override
-    public void fetchData(int killerId) {
-        if(RemoteConfiguration.MergedDataTracking.asBoolean()) {
-            clearData(killerId);
-            return;
-        }
-        
-        QueryResult result = Query.table(PVPTotals.TableName)
-                .column(PVPTotals.Times)
-                .condition(PVPTotals.PlayerId, killerId)
-                .condition(PVPTotals.VictimId, victimId)
-                .condition(PVPTotals.MaterialId, MaterialCache.parse(weapon))
-                .select();
-        if(result == null) {
-            Query.table(PVPTotals.TableName)
-                .value(PVPTotals.PlayerId, killerId)
-                .value(PVPTotals.VictimId, victimId)
-                .value(PVPTotals.MaterialId, MaterialCache.parse(weapon))
-                .value(PVPTotals.Times, times)
-                .insert();
-        } else {
-            times = result.asInt(PVPTotals.Times);
-        }
-    }
+    @Deprecated
+    public void fetchData(int playerId) { }
 
     @Override
     public boolean pushData(int killerId) {
+        int delta;
+        synchronized(this) { delta = times; }
+        if(delta == 0) return true;
+        
         boolean result = Query.table(PVPTotals.TableName)
-                .value(PVPTotals.Times, times)
+                .increment(PVPTotals.Times, delta)
                 .condition(PVPTotals.PlayerId, killerId)
                 .condition(PVPTotals.VictimId, victimId)
                 .condition(PVPTotals.MaterialId, MaterialCache.parse(weapon))
-                .update(RemoteConfiguration.MergedDataTracking.asBoolean());
-        fetchData(killerId);
-        return result;
+                .upsert();
+        if(!result) return false;
+        
+        synchronized(this) { times -= delta; }
+        return true;
     }
-    
+
     @Override
-    public void clearData(int playerId) {
+    public synchronized void clearData(int playerId) {
         times = 0;
     }
     
+    @Override
+    public boolean isPersistent() {
+        return true;
+    }
+    
     /**
      * Matches data provided in the arguments with the one in the entry.
      * @param victimId ID of the victim
@@ -116,8 +105,9 @@ public class TotalPVPStats extends NormalData {
     /**
      * Increments the number of times the victim was killed
      */
-    public void addTimes() {
+    public synchronized void addTimes() {
         times++;
+        markDirty();
     }
     
 }
@@ -0,0 +1,190 @@
+/*
+ * H2Engine.java
+ *
+ * Statistics
+ * Copyright (C) 2013 bitWolfy <http://www.wolvencraft.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.wolvencraft.yasp.db.engine;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.wolvencraft.yasp.Statistics;
+import com.wolvencraft.yasp.exceptions.DatabaseConnectionException;
+import com.wolvencraft.yasp.settings.LocalConfiguration;
+import com.wolvencraft.yasp.util.Message;
+
+/**
+ * Stores the data in an embedded H2 database in the plugin folder.<br />
+ * H2 runs in its MySQL compatibility mode, so the queries built by the plugin work as they are.
+ * The patch scripts are stripped of the MySQL session settings and schema references that H2 does not understand,
+ * and the few MySQL-only statements in them are rewritten to their H2 equivalents.<br />
+ * The H2 driver is not shipped with the server, so it is loaded from the jar specified in the configuration.
+ * @author bitWolfy
+ *
+ */
+public class H2Engine implements StorageEngine {
+    
+    private static final String DRIVER_CLASS = "org.h2.Driver";
+    private static final String DEFAULT_NAME = "statistics";
+    private static final int FETCH_SIZE = 100;
+    
+    private static final Pattern FOREIGN_KEY = Pattern.compile("DROP\\s+FOREIGN\\s+KEY", Pattern.CASE_INSENSITIVE);
+    private static final Pattern UNIQUE_INDEX = Pattern.compile(
+        "^\\s*ALTER\\s+IGNORE\\s+TABLE\\s+(\\S+)\\s+ADD\\s+UNIQUE\\s+(?:INDEX|KEY)\\s+(\\S+)\\s*(\\(.*\\))\\s*$",
+        Pattern.CASE_INSENSITIVE | Pattern.DOTALL
+    );
+    private static final Pattern CHANGE_COLUMN = Pattern.compile(
+        "^\\s*(ALTER\\s+TABLE\\s+\\S+)\\s+CHANGE\\s+(?:COLUMN\\s+)?(\\S+)\\s+(\\S+)\\s+.*$",
+        Pattern.CASE_INSENSITIVE | Pattern.DOTALL
+    );
+    private static final Pattern DROP_INDEX = Pattern.compile(
+        "^\\s*DROP\\s+INDEX\\s+(\\S+)\\s+ON\\s+(\\S+)\\s*$",
+        Pattern.CASE_INSENSITIVE | Pattern.DOTALL
+    );
+    
+    private Driver driver;
+    private String url;
+    private Properties properties;
+    
+    /**
+     * <b>Default constructor</b><br />
+     * Creates a new H2 engine. The driver is not loaded until {@link #load()} is called.
+     */
+    public H2Engine() {
+        driver = null;
+        url = null;
+        properties = null;
+    }
+    
+    @Override
+    public String getName() {
+        return "h2";
+    }
+    
+    @Override
+    public void load() throws DatabaseConnectionException {
+        File dataFolder = Statistics.getInstance().getDataFolder();
+        
+        try { driver = (Driver) Class.forName(DRIVER_CLASS).newInstance(); }
+        catch (ClassNotFoundException ex) {
+            File jar = new File(dataFolder, LocalConfiguration.DBDriverPath.toString());
+            if(!jar.exists()) throw new DatabaseConnectionException("H2 driver was not found! Place it in " + jar.getPath());
+            try {
+                ClassLoader loader = new URLClassLoader(new URL[] { jar.toURI().toURL() }, getClass().getClassLoader());
+                driver = (Driver) Class.forName(DRIVER_CLASS, true, loader).newInstance();
+                Message.debug("Loaded the H2 driver from " + jar.getPath());
+            } catch (Exception e) { throw new DatabaseConnectionException("Unable to load the H2 driver from " + jar.getPath(), e); }
+        } catch (Exception ex) { throw new DatabaseConnectionException("Unable to load the H2 driver", ex); }
+        
+        String name = LocalConfiguration.DBName.toString();
+        if(name == null || name.isEmpty()) name = DEFAULT_NAME;
+        url = "jdbc:h2:" + new File(dataFolder, name).getAbsolutePath() + ";MODE=MySQL;DATABASE_TO_UPPER=FALSE";
+        
+        properties = new Properties();
+        properties.setProperty("user", LocalConfiguration.DBUser.toString());
+        properties.setProperty("password", LocalConfiguration.DBPass.toString());
+    }
+    
+    @Override
+    public Connection connect() throws SQLException {
+        if(driver == null) throw new SQLException("H2 driver has not been loaded");
+        Connection connection = driver.connect(url, properties);
+        if(connection == null) throw new SQLException("H2 driver rejected the connection URL: " + url);
+        return connection;
+    }
+    
+    @Override
+    public int getStreamingFetchSize() {
+        return FETCH_SIZE;
+    }
+    
+    /**
+     * H2 does not accept an argument to <code>LAST_INSERT_ID()</code>
+     */
+    @Override
+    public boolean supportsInsertIdUpsert() {
+        return false;
+    }
+    
+    /**
+     * Besides dropping the MySQL session settings and schema references, the following statements are rewritten:
+     * <ul>
+     * <li><code>ALTER IGNORE TABLE ... ADD UNIQUE INDEX</code> becomes <code>CREATE UNIQUE INDEX IF NOT EXISTS</code></li>
+     * <li><code>ALTER TABLE ... CHANGE</code> becomes a column rename; the patches never change the type of a renamed column</li>
+     * <li><code>DROP INDEX ... ON</code> drops the unique constraint H2 created for the <code>UNIQUE KEY</code> of the table</li>
+     * <li><code>DROP FOREIGN KEY</code> becomes <code>DROP CONSTRAINT</code></li>
+     * </ul>
+     * String literals in double quotes are converted to single quotes, since H2 reads double quotes as identifiers.
+     */
+    @Override
+    public String translate(String statement) {
+        String trimmed = statement.trim().toLowerCase();
+        if(trimmed.startsWith("set ")
+                || trimmed.startsWith("use ")
+                || trimmed.startsWith("create schema")) return null;
+        
+        String sql = quoteLiterals(statement.replace("`" + LocalConfiguration.DBName.toString() + "`.", ""));
+        
+        Matcher matcher = UNIQUE_INDEX.matcher(sql);
+        if(matcher.matches()) return "CREATE UNIQUE INDEX IF NOT EXISTS " + matcher.group(2) + " ON " + matcher.group(1) + " " + matcher.group(3);
+        
+        matcher = CHANGE_COLUMN.matcher(sql);
+        if(matcher.matches()) return matcher.group(1) + " ALTER COLUMN " + matcher.group(2) + " RENAME TO " + matcher.group(3);
+        
+        matcher = DROP_INDEX.matcher(sql);
+        if(matcher.matches()) return "ALTER TABLE " + matcher.group(2) + " DROP CONSTRAINT IF EXISTS " + matcher.group(1);
+        
+        return FOREIGN_KEY.matcher(sql).replaceAll(Matcher.quoteReplacement("DROP CONSTRAINT"));
+    }
+    
+    /**
+     * Converts the string literals in double quotes to single quotes.<br />
+     * Single-quoted literals and backtick identifiers are left as they are.
+     * @param sql SQL statement
+     * @return Statement with single-quoted literals only
+     */
+    private static String quoteLiterals(String sql) {
+        StringBuilder result = new StringBuilder(sql.length());
+        char quote = 0;
+        for(int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if(quote == 0) {
+                if(c == '\'' || c == '`' || c == '"') quote = c;
+                result.append(c == '"' ? '\'' : c);
+            } else if(c == '\\' && i + 1 < sql.length()) {
+                result.append(c).append(sql.charAt(++i));
+            } else if(c == quote) {
+                quote = 0;
+                result.append(c == '"' ? '\'' : c);
+            } else if(quote == '"' && c == '\'') {
+                result.append("''");
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+    
+}
@@ -0,0 +1,73 @@
+/*
+ * MySQLEngine.java
+ *
+ * Statistics
+ * Copyright (C) 2013 bitWolfy <http://www.wolvencraft.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.wolvencraft.yasp.db.engine;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import com.wolvencraft.yasp.exceptions.DatabaseConnectionException;
+import com.wolvencraft.yasp.settings.LocalConfiguration;
+
+/**
+ * Stores the data in a remote MySQL database.<br />
+ * The patch scripts are written for MySQL, and are run as they are.
+ * @author bitWolfy
+ *
+ */
+public class MySQLEngine implements StorageEngine {
+    
+    @Override
+    public String getName() {
+        return "mysql";
+    }
+    
+    @Override
+    public void load() throws DatabaseConnectionException {
+        try { Class.forName("com.mysql.jdbc.Driver"); }
+        catch (ClassNotFoundException ex) { throw new DatabaseConnectionException("MySQL driver was not found!"); }
+    }
+    
+    @Override
+    public Connection connect() throws SQLException {
+        return DriverManager.getConnection(
+            LocalConfiguration.DBConnect.toString(),
+            LocalConfiguration.DBUser.toString(),
+            LocalConfiguration.DBPass.toString()
+        );
+    }
+    
+    @Override
+    public int getStreamingFetchSize() {
+        return Integer.MIN_VALUE;
+    }
+    
+    @Override
+    public boolean supportsInsertIdUpsert() {
+        return true;
+    }
+    
+    @Override
+    public String translate(String statement) {
+        return statement;
+    }
+    
+}
@@ -0,0 +1,77 @@
+/*
+ * StorageEngine.java
+ *
+ * Statistics
+ * Copyright (C) 2013 bitWolfy <http://www.wolvencraft.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.wolvencraft.yasp.db.engine;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import com.wolvencraft.yasp.exceptions.DatabaseConnectionException;
+
+/**
+ * Represents a database backend that the plugin can store its data in.<br />
+ * The engine is responsible for loading its JDBC driver, opening physical connections, and adapting
+ * the MySQL-flavored patch scripts to its own SQL dialect.
+ * @author bitWolfy
+ *
+ */
+public interface StorageEngine {
+    
+    /**
+     * Returns the name of the engine, as it is specified in the configuration
+     * @return Engine name
+     */
+    public String getName();
+    
+    /**
+     * Loads the JDBC driver for the engine.<br />
+     * Called once, before any connections are opened.
+     * @throws DatabaseConnectionException Thrown if the driver could not be loaded
+     */
+    public void load() throws DatabaseConnectionException;
+    
+    /**
+     * Opens a new physical connection to the database
+     * @return Database connection
+     * @throws SQLException Thrown if the connection could not be opened
+     */
+    public Connection connect() throws SQLException;
+    
+    /**
+     * Returns the fetch size that makes the driver stream the rows of a result set instead of buffering them
+     * @return Fetch size
+     */
+    public int getStreamingFetchSize();
+    
+    /**
+     * Checks if an upsert can hand back the ID of the existing row with <code>LAST_INSERT_ID(column)</code>.<br />
+     * If not, the ID of an existing row has to be looked up with a separate query.
+     * @return <b>true</b> if the engine supports it, <b>false</b> otherwise
+     */
+    public boolean supportsInsertIdUpsert();
+    
+    /**
+     * Adapts a statement from a patch script to the SQL dialect of the engine
+     * @param statement Statement from the patch script
+     * @return Translated statement, or <b>null</b> if the statement should be skipped
+     */
+    public String translate(String statement);
+    
+}
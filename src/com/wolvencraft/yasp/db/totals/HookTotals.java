@@ -19,6 +19,7 @@ package com.wolvencraft.yasp.db.totals;
 
 import com.wolvencraft.yasp.Statistics;
 import com.wolvencraft.yasp.db.Query;
+import com.wolvencraft.yasp.db.Query.QueryResult;
 import com.wolvencraft.yasp.db.tables.Hook;
 import com.wolvencraft.yasp.settings.Module;
 import com.wolvencraft.yasp.util.VariableManager;
@@ -60,9 +61,10 @@ public class HookTotals {
         if(!Statistics.getInstance().isEnabled()) return;
         if(Module.Vault.isActive()){
             try{
-                values.put(HookVariable.MONEY, Query.table(Hook.VaultTable.TableName).column(Hook.VaultTable.Balance).condition(Hook.VaultTable.PlayerId, playerId).select().asDouble(Hook.VaultTable.Balance));
+                QueryResult vault = Query.table(Hook.VaultTable.TableName).column(Hook.VaultTable.Balance, Hook.VaultTable.GroupName).condition(Hook.VaultTable.PlayerId, playerId).select();
+                values.put(HookVariable.MONEY, vault.asDouble(Hook.VaultTable.Balance));
                 try{
-                    JSONArray JSONarray = (JSONArray)new JSONParser().parse( Query.table(Hook.VaultTable.TableName).column(Hook.VaultTable.GroupName).condition(Hook.VaultTable.PlayerId, playerId).select().asString(Hook.VaultTable.GroupName));
+                    JSONArray JSONarray = (JSONArray)new JSONParser().parse(vault.asString(Hook.VaultTable.GroupName));
                     JSONObject group = (JSONObject) JSONarray.get(0);
                     values.put(HookVariable.GROUP, group.get("group"));
                 } catch(ParseException e){
@@ -29,6 +29,8 @@ import org.bukkit.ChatColor;
 
 import com.wolvencraft.yasp.Statistics;
 import com.wolvencraft.yasp.db.Query;
+import com.wolvencraft.yasp.db.Query.CombinedQuery;
+import com.wolvencraft.yasp.db.Query.QueryResult;
 import com.wolvencraft.yasp.db.tables.Normal.PlayerDistance;
 import com.wolvencraft.yasp.db.tables.Normal.PlayerStats;
 import com.wolvencraft.yasp.db.tables.Normal.BlockTotals;
@@ -48,6 +50,7 @@ import com.wolvencraft.yasp.util.VariableManager.PlayerVariable;
 public class PlayerTotals {
     
     private int playerId;
+    private boolean online;
     private Map<PlayerVariable, Object> values;
     
     /**
@@ -56,6 +59,7 @@ public class PlayerTotals {
      */
     public PlayerTotals(int playerId) {
         this.playerId = playerId;
+        this.online = false;
         
         values = new HashMap<PlayerVariable, Object>();
         values.put(PlayerVariable.SESSION_START, Util.getTimestamp());
@@ -64,55 +68,113 @@ public class PlayerTotals {
         fetchData();
     }
     
+    /**
+     * <b>Constructor</b><br />
+     * Sets up the data holder for a player who has just logged in, from the values read by {@link #include(CombinedQuery, int)}.<br />
+     * The session starts now, so the login time is not read from the database.
+     * @param playerId Player ID
+     * @param totals Result of the combined query, or <b>null</b> if it failed
+     */
+    public PlayerTotals(int playerId, QueryResult totals) {
+        this.playerId = playerId;
+        this.online = true;
+        
+        values = new HashMap<PlayerVariable, Object>();
+        values.put(PlayerVariable.SESSION_START, Util.getTimestamp());
+        values.put(PlayerVariable.KILL_DEATH_RATIO, 1);
+        
+        if(totals != null) apply(totals);
+    }
+    
     /**
      * Fetches the data from the remote database.<br />
      * Automatically calculates values from the contents of corresponding tables.
+     * All values are fetched with a single combined query.
      */
     public void fetchData() {
         
         if(!Statistics.getInstance().isEnabled()) return;
         
-        try { values.put(PlayerVariable.SESSION_START, Query.table(PlayerStats.TableName).column(PlayerStats.LoginTime).condition(PlayerStats.PlayerId, playerId).select().asLong(PlayerStats.LoginTime)); }
-        catch (NullPointerException ex) { values.put(PlayerVariable.SESSION_START, Util.getTimestamp()); }
+        CombinedQuery query = include(Query.combine(), playerId);
+        if(!online) query.value(PlayerVariable.SESSION_START.name(), Query.table(PlayerStats.TableName).column(PlayerStats.LoginTime).condition(PlayerStats.PlayerId, playerId));
+        QueryResult totals = query.select();
+        if(totals == null) return;
+        
+        apply(totals);
+    }
+    
+    /**
+     * Adds the queries the totals are calculated from to the combined query
+     * @param query Combined query
+     * @param playerId Player ID
+     * @return Combined query
+     */
+    public static CombinedQuery include(CombinedQuery query, int playerId) {
+        return query
+            .value(PlayerVariable.TOTAL_PLAYTIME_RAW.name(), Query.table(PlayerStats.TableName).column(PlayerStats.Playtime).condition(PlayerStats.PlayerId, playerId))
+            .sum(PlayerVariable.BLOCKS_BROKEN.name(), Query.table(BlockTotals.TableName).column(BlockTotals.Destroyed).condition(BlockTotals.PlayerId, playerId))
+            .sum(PlayerVariable.BLOCKS_PLACED.name(), Query.table(BlockTotals.TableName).column(BlockTotals.Placed).condition(BlockTotals.PlayerId, playerId))
+            .sum(PlayerVariable.DISTANCE_FOOT.name(), Query.table(PlayerDistance.TableName).column(PlayerDistance.Foot).condition(PlayerDistance.PlayerId, playerId))
+            .sum(PlayerVariable.DISTANCE_BOAT.name(), Query.table(PlayerDistance.TableName).column(PlayerDistance.Boat).condition(PlayerDistance.PlayerId, playerId))
+            .sum(PlayerVariable.DISTANCE_CART.name(), Query.table(PlayerDistance.TableName).column(PlayerDistance.Minecart).condition(PlayerDistance.PlayerId, playerId))
+            .sum(PlayerVariable.DISTANCE_RIDE.name(), Query.table(PlayerDistance.TableName).column(PlayerDistance.Ride).condition(PlayerDistance.PlayerId, playerId))
+            .sum(PlayerVariable.DISTANCE_SWIM.name(), Query.table(PlayerDistance.TableName).column(PlayerDistance.Swim).condition(PlayerDistance.PlayerId, playerId))
+            .sum(PlayerVariable.DISTANCE_FLIGHT.name(), Query.table(PlayerDistance.TableName).column(PlayerDistance.Flight).condition(PlayerDistance.PlayerId, playerId))
+            .sum(PlayerVariable.ITEMS_BROKEN.name(), Query.table(ItemTotals.TableName).column(ItemTotals.Broken).condition(ItemTotals.PlayerId, playerId))
+            .sum(PlayerVariable.ITEMS_CRAFTED.name(), Query.table(ItemTotals.TableName).column(ItemTotals.Crafted).condition(ItemTotals.PlayerId, playerId))
+            .sum(PlayerVariable.ITEMS_EATEN.name(), Query.table(ItemTotals.TableName).column(ItemTotals.Used).condition(ItemTotals.PlayerId, playerId))
+            .sum(PlayerVariable.ITEMS_DROPPED.name(), Query.table(ItemTotals.TableName).column(ItemTotals.Dropped).condition(ItemTotals.PlayerId, playerId))
+            .sum(PlayerVariable.ITEMS_PICKEDUP.name(), Query.table(ItemTotals.TableName).column(ItemTotals.PickedUp).condition(ItemTotals.PlayerId, playerId))
+            .sum(PlayerVariable.PVP_KILLS.name(), Query.table(PVPTotals.TableName).column(PVPTotals.Times).condition(PVPTotals.PlayerId, playerId))
+            .sum(PlayerVariable.PVE_KILLS.name(), Query.table(PVETotals.TableName).column(PVETotals.CreatureKilled).condition(PVETotals.PlayerId, playerId))
+            .sum("PVP_DEATHS", Query.table(PVPTotals.TableName).column(PVPTotals.Times).condition(PVPTotals.VictimId, playerId))
+            .sum("OTHER_DEATHS", Query.table(DeathTotals.TableName).column(DeathTotals.Times).condition(DeathTotals.PlayerId, playerId));
+    }
+    
+    /**
+     * Calculates the values from the result of the combined query
+     * @param totals Result of the combined query
+     */
+    private void apply(QueryResult totals) {
+        
+        long sessionStart = totals.asLong(PlayerVariable.SESSION_START.name());
+        if(sessionStart == -1) sessionStart = (Long) values.get(PlayerVariable.SESSION_START);
+        values.put(PlayerVariable.SESSION_START, sessionStart);
         
-        long sessionStart = (Long) values.get(PlayerVariable.SESSION_START);
-        long totalPlaytime = Query.table(PlayerStats.TableName).column(PlayerStats.Playtime).condition(PlayerStats.PlayerId, playerId).select().asLong(PlayerStats.Playtime);
+        long totalPlaytime = Math.max(0, totals.asLong(PlayerVariable.TOTAL_PLAYTIME_RAW.name()));
         values.put(PlayerVariable.SESSION_LENGTH, Util.parseTimestamp(Util.getTimestamp() - sessionStart));
         values.put(PlayerVariable.SESSION_LENGTH_RAW, (Util.getTimestamp() - sessionStart));
         values.put(PlayerVariable.TOTAL_PLAYTIME, Util.parseTimestamp(totalPlaytime));
         values.put(PlayerVariable.TOTAL_PLAYTIME_RAW, totalPlaytime);
         
-        values.put(PlayerVariable.BLOCKS_BROKEN, (int) Query.table(BlockTotals.TableName).column(BlockTotals.Destroyed).condition(BlockTotals.PlayerId, playerId).sum());
-        values.put(PlayerVariable.BLOCKS_PLACED, (int) Query.table(BlockTotals.TableName).column(BlockTotals.Placed).condition(BlockTotals.PlayerId, playerId).sum());
+        values.put(PlayerVariable.BLOCKS_BROKEN, totals.asInt(PlayerVariable.BLOCKS_BROKEN.name()));
+        values.put(PlayerVariable.BLOCKS_PLACED, totals.asInt(PlayerVariable.BLOCKS_PLACED.name()));
         
-        values.put(PlayerVariable.DISTANCE_FOOT, Query.table(PlayerDistance.TableName).column(PlayerDistance.Foot).condition(PlayerDistance.PlayerId, playerId).sum());
-        values.put(PlayerVariable.DISTANCE_BOAT, Query.table(PlayerDistance.TableName).column(PlayerDistance.Boat).condition(PlayerDistance.PlayerId, playerId).sum());
-        values.put(PlayerVariable.DISTANCE_CART, Query.table(PlayerDistance.TableName).column(PlayerDistance.Minecart).condition(PlayerDistance.PlayerId, playerId).sum());
-        values.put(PlayerVariable.DISTANCE_RIDE, Query.table(PlayerDistance.TableName).column(PlayerDistance.Ride).condition(PlayerDistance.PlayerId, playerId).sum());
-        values.put(PlayerVariable.DISTANCE_SWIM, Query.table(PlayerDistance.TableName).column(PlayerDistance.Swim).condition(PlayerDistance.PlayerId, playerId).sum());
-        values.put(PlayerVariable.DISTANCE_FLIGHT, Query.table(PlayerDistance.TableName).column(PlayerDistance.Flight).condition(PlayerDistance.PlayerId, playerId).sum());
-        
-        double totalDistance = ((Double) values.get(PlayerVariable.DISTANCE_FOOT))
-                + ((Double) values.get(PlayerVariable.DISTANCE_BOAT))
-                + ((Double) values.get(PlayerVariable.DISTANCE_CART))
-                + ((Double) values.get(PlayerVariable.DISTANCE_RIDE))
-                + ((Double) values.get(PlayerVariable.DISTANCE_SWIM))
-                + ((Double) values.get(PlayerVariable.DISTANCE_FLIGHT));
+        double totalDistance = 0;
+        for(PlayerVariable type : new PlayerVariable[] {
+                PlayerVariable.DISTANCE_FOOT,
+                PlayerVariable.DISTANCE_BOAT,
+                PlayerVariable.DISTANCE_CART,
+                PlayerVariable.DISTANCE_RIDE,
+                PlayerVariable.DISTANCE_SWIM,
+                PlayerVariable.DISTANCE_FLIGHT }) {
+            double distance = totals.asDouble(type.name());
+            values.put(type, distance);
+            totalDistance += distance;
+        }
         values.put(PlayerVariable.DISTANCE_TRAVELED, totalDistance);
         
-        values.put(PlayerVariable.ITEMS_BROKEN, (int) Query.table(ItemTotals.TableName).column(ItemTotals.Broken).condition(ItemTotals.PlayerId, playerId).sum());
-        values.put(PlayerVariable.ITEMS_CRAFTED, (int) Query.table(ItemTotals.TableName).column(ItemTotals.Crafted).condition(ItemTotals.PlayerId, playerId).sum());
-        values.put(PlayerVariable.ITEMS_EATEN, (int) Query.table(ItemTotals.TableName).column(ItemTotals.Used).condition(ItemTotals.PlayerId, playerId).sum());
-        values.put(PlayerVariable.ITEMS_DROPPED, (long) Query.table(ItemTotals.TableName).column(ItemTotals.Dropped).condition(ItemTotals.PlayerId, playerId).sum());
-        values.put(PlayerVariable.ITEMS_PICKEDUP, (long) Query.table(ItemTotals.TableName).column(ItemTotals.PickedUp).condition(ItemTotals.PlayerId, playerId).sum());
+        values.put(PlayerVariable.ITEMS_BROKEN, totals.asInt(PlayerVariable.ITEMS_BROKEN.name()));
+        values.put(PlayerVariable.ITEMS_CRAFTED, totals.asInt(PlayerVariable.ITEMS_CRAFTED.name()));
+        values.put(PlayerVariable.ITEMS_EATEN, totals.asInt(PlayerVariable.ITEMS_EATEN.name()));
+        values.put(PlayerVariable.ITEMS_DROPPED, totals.asLong(PlayerVariable.ITEMS_DROPPED.name()));
+        values.put(PlayerVariable.ITEMS_PICKEDUP, totals.asLong(PlayerVariable.ITEMS_PICKEDUP.name()));
         
-        int pvpKills = (int) Query.table(PVPTotals.TableName).column(PVPTotals.Times).condition(PVPTotals.PlayerId, playerId).sum();
+        int pvpKills = totals.asInt(PlayerVariable.PVP_KILLS.name());
         values.put(PlayerVariable.PVP_KILLS, pvpKills);
-        values.put(PlayerVariable.PVE_KILLS, (int) Query.table(PVETotals.TableName).column(PVETotals.CreatureKilled).condition(PVETotals.PlayerId, playerId).sum());
+        values.put(PlayerVariable.PVE_KILLS, totals.asInt(PlayerVariable.PVE_KILLS.name()));
         
-        int pvpDeaths = (int) Query.table(PVPTotals.TableName).column(PVPTotals.Times).condition(PVPTotals.VictimId, playerId).sum();
-        int otherDeaths = (int) Query.table(DeathTotals.TableName).column(DeathTotals.Times).condition(DeathTotals.PlayerId, playerId).sum();
-        int deaths = pvpDeaths + otherDeaths;
+        int deaths = totals.asInt("PVP_DEATHS") + totals.asInt("OTHER_DEATHS");
         values.put(PlayerVariable.DEATHS, deaths);
         
         double kdr = 1;
@@ -29,7 +29,9 @@ import org.bukkit.event.HandlerList;
 import com.wolvencraft.yasp.events.StatisticsEvent;
 
 /**
- * Called when the data has been synchronized with the database
+ * Called when the data has been synchronized with the database.<br />
+ * Reports how many players were synchronized, how many of them could only be spooled locally,
+ * and how long the synchronization took, in milliseconds.
  * @author bitWolfy
  *
  */
@@ -39,6 +41,9 @@ public class SynchronizationCompleteEvent extends StatisticsEvent {
     
     private static final HandlerList handlers = new HandlerList();
     private int processId;
+    private int players;
+    private int failed;
+    private long duration;
     
     @Override
     public HandlerList getHandlers() {
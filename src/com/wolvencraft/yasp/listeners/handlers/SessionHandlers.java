@@ -30,7 +30,7 @@ import com.wolvencraft.yasp.session.OnlineSession;
 import com.wolvencraft.yasp.settings.RemoteConfiguration;
 import com.wolvencraft.yasp.util.Message;
 import com.wolvencraft.yasp.util.cache.OnlineSessionCache;
-import org.bukkit.metadata.FixedMetadataValue;
+import com.wolvencraft.yasp.util.cache.PlayerCache;
 
 public class SessionHandlers {
     
@@ -69,13 +69,13 @@ public class SessionHandlers {
             OnlineSession session = OnlineSessionCache.fetch(player);
             if(session.isReady()){
                 session.getPlayersData().addPlayerLog(player.getLocation(), false);     
-                //set Metadata to -1 (This player will probably get removed form the databaes later)
+                //Forget the player's ID (This player will probably get removed form the databaes later)
                 long delay = RemoteConfiguration.LogDelay.asInteger();
                 if(delay != 0 && OnlineSessionCache.fetch(player).getPlayersData().getGeneralData().getTotalPlaytime() < delay){
-                    player.setMetadata("stats_id", new FixedMetadataValue(Statistics.getInstance(), -1));
+                    PlayerCache.invalidate(player.getUniqueId());
                 }
             }
-            else player.setMetadata("stats_id", new FixedMetadataValue(Statistics.getInstance(), -1));
+            else PlayerCache.invalidate(player.getUniqueId());
         }
     }
     
@@ -40,6 +40,7 @@ import org.bukkit.scoreboard.Scoreboard;
 import org.bukkit.scoreboard.ScoreboardManager;
 
 import com.wolvencraft.yasp.db.Query;
+import com.wolvencraft.yasp.db.Query.QueryResult;
 import com.wolvencraft.yasp.db.data.DataStore;
 import com.wolvencraft.yasp.db.data.DataStore.DataStoreType;
 import com.wolvencraft.yasp.db.data.deaths.DeathData;
@@ -102,7 +103,10 @@ public class OnlineSession implements PlayerSession {
                     
                     id = PlayerCache.get(tmp_player);  
                     setid(id);
-                    playersData = new PlayersData(tmp_player, id);
+                    
+                    //Everything the session is created from is read in a single round trip
+                    QueryResult joined = PlayerTotals.include(PlayersData.include(Query.combine(), id), id).select();
+                    playersData = new PlayersData(tmp_player, id, joined);
                     
                     //If player is still online add an login location to the database
                     if(tmp_player.isOnline()){
@@ -110,15 +114,13 @@ public class OnlineSession implements PlayerSession {
                     }
                     
                     setPlayersData(playersData);
-                    playerTotals = new PlayerTotals(id);
+                    playerTotals = new PlayerTotals(id, joined);
                     setPlayersTotals(playerTotals);
-        
-                    Query.table(PlayerStats.TableName)
-                    .value(PlayerStats.Online, true)
-                    .condition(PlayerStats.PlayerId, id)
-                    .update();  
                     
                     setReady();
+                    
+                    //Nothing read above depends on the login being recorded, so it is written once the session is ready
+                    playersData.login();
             }
         });
     }
@@ -186,13 +188,22 @@ public class OnlineSession implements PlayerSession {
     }
     
     /**
-     * Performs a database operation to push the locally stored data.
+     * Returns the number of entries that are waiting to be pushed to the database
+     * @return Number of pending entries
+     */
+    public int getPendingCount() {
+        int pending = playersData == null ? 0 : playersData.getPendingCount();
+        for(DataStore store : dataStores) pending += store.getPendingCount();
+        return pending;
+    }
+    
+    /**
+     * Performs a database operation to push the locally stored data.<br />
+     * The totals are not fetched here, since the writes might only be planned; fetch them once the data is committed.
      */
     public void pushData() {
         playersData.sync();
         for(DataStore store : dataStores) store.pushData();
-        
-        playerTotals.fetchData();
     }
     
     /**
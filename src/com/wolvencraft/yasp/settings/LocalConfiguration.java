@@ -32,14 +32,35 @@ import com.wolvencraft.yasp.util.ExceptionHandler;
 public enum LocalConfiguration {
     
     Debug           ("debug"),
+    DBEngine        ("database.engine"),
+    DBDriverPath    ("database.driver_path"),
     DBHost          ("database.host"),
     DBPort          ("database.port"),
     DBName          ("database.name"),
     DBUser          ("database.user"),
     DBPass          ("database.pass"),
     DBPrefix        ("database.prefix"),
-    DBConnect       ("jdbc:mysql://" + DBHost.toString() + ":" + DBPort.toInteger() + "/" + DBName.toString(), true),
+    DBConnect       ("jdbc:mysql://" + DBHost.toString() + ":" + DBPort.toInteger() + "/" + DBName.toString() + "?useServerPrepStmts=true&rewriteBatchedStatements=true&connectTimeout=5000", true),
     DBReconnect     ("database.reconnect_interval"),
+    DBReconnectMax  ("database.reconnect_max_interval"),
+    DBPoolSize      ("database.pool_size"),
+    DBPoolTimeout   ("database.pool_timeout"),
+    DBStatementCache("database.statement_cache_size"),
+    DBBatchSize     ("database.batch_size"),
+    DBSyncGroup     ("database.sync_group_size"),
+    DBSyncThreads   ("database.sync_threads"),
+    DBSyncSlots     ("database.sync_slots"),
+    DBSyncAdaptive  ("database.adaptive_sync"),
+    DBSyncBacklog   ("database.sync_backlog_limit"),
+    DBBufferSessionLimit("database.buffer_session_limit"),
+    DBBufferGlobalLimit("database.buffer_global_limit"),
+    DBBufferPolicy  ("database.buffer_overflow_policy"),
+    DBBufferSampleRate("database.buffer_sample_rate"),
+    DBOfflineCacheSize("database.offline_cache_size"),
+    DBOfflineCacheTTL("database.offline_cache_ttl"),
+    DBOfflineCacheRefresh("database.offline_cache_refresh"),
+    DBAsyncThreads  ("database.async_threads"),
+    DBAsyncQueue    ("database.async_queue_size"),
     LogPrefix       ("log-prefix"),
     ;
     
@@ -72,11 +72,22 @@ public class BookUtil {
      * @return Book with player's statistics
      */
     public static ItemStack compileStatsBook (Player player) {
+        return compileStatsBook(player, getBookPages(player.getUniqueId()));
+    }
+    
+    /**
+     * Creates a new statistics book with the specified pages.<br />
+     * The pages can be compiled ahead of time with {@link #getBookPages(UUID)} off the server thread.
+     * @param player Player to use for the book title
+     * @param pages Pages of the book
+     * @return Book with player's statistics
+     */
+    public static ItemStack compileStatsBook (Player player, String[] pages) {
         ItemStack bookStack = new ItemStack(387, 1);
         BookMeta book = (BookMeta) bookStack.getItemMeta();
         book.setTitle(title.replace("%PLAYERNAME%",player.getName()));
         book.setAuthor("Statistics");
-        book.setPages(getBookPages(player.getUniqueId()));
+        book.setPages(pages);
         
         bookStack.setItemMeta(book);
         return bookStack;
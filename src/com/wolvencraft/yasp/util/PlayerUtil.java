@@ -9,6 +9,7 @@ package com.wolvencraft.yasp.util;
 
 import com.wolvencraft.yasp.db.Query;
 import com.wolvencraft.yasp.db.tables.Normal;
+import com.wolvencraft.yasp.util.cache.PlayerCache;
 import java.util.UUID;
 
 
@@ -21,7 +22,7 @@ public class PlayerUtil {
  * @return TRUE on success
  */
     public static boolean remove(UUID uuid){
-             
+           PlayerCache.invalidate(uuid);
            return Query.table(Normal.PlayerStats.TableName)
                         .condition(Normal.PlayerStats.UUID, uuid.toString())
                         .delete();  
@@ -20,31 +20,48 @@
 
 package com.wolvencraft.yasp.util.cache;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.bukkit.entity.EntityType;
 
+import com.wolvencraft.yasp.db.Database;
 import com.wolvencraft.yasp.db.Query;
+import com.wolvencraft.yasp.db.Query.QueryResult;
+import com.wolvencraft.yasp.db.Query.RowHandler;
 import com.wolvencraft.yasp.db.tables.Miscellaneous.EntitiesTable;
+import com.wolvencraft.yasp.util.Message;
 import com.wolvencraft.yasp.util.cache.CachedData.CachedDataProcess;
 
 /**
- * Caches entity IDs server-side
+ * Caches entity IDs server-side.<br />
+ * Works like the material cache: the entities table is read once, and unknown entity types are registered in batches.
  * @author bitWolfy
  *
  */
 public class EntityCache implements CachedDataProcess {
     
     private final long REFRESH_RATE_TICKS = (long)(24 * 3600 * 20);
-    private static List<String> entities;
+    private static Set<String> entities;
+    private static ConcurrentMap<String, String> pending;
+    private static final ThreadLocal<Set<String>> REFERENCED = new ThreadLocal<Set<String>>() {
+        @Override
+        protected Set<String> initialValue() { return new HashSet<String>(); }
+    };
     
     /**
      * <b>Default constructor</b><br />
-     * Creates a new List for data storage
+     * Creates a new Set for data storage that can be shared between the synchronization threads
      */
     public EntityCache() {
-        entities = new ArrayList<String>();
+        entities = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        pending = new ConcurrentHashMap<String, String>();
     }
     
     @Override
@@ -52,27 +69,82 @@ public class EntityCache implements CachedDataProcess {
         return REFRESH_RATE_TICKS;
     }
     
+    /**
+     * Loads all entity IDs from the entities table
+     */
     @Override
     public void run() {
-        entities.clear();
+        long rows = Query.table(EntitiesTable.TableName).column(EntitiesTable.EntityId).stream(new RowHandler() {
+            
+            @Override
+            public boolean handle(QueryResult row) {
+                entities.add(row.asString(EntitiesTable.EntityId));
+                return true;
+            }
+            
+        });
+        if(rows >= 0) Message.debug("Loaded " + rows + " entities");
+    }
+    
+    /**
+     * Registers the queued entity types in the entities table, in a single batch.<br />
+     * The entity types are only removed from the queue once the batch has been committed.
+     */
+    public static void flush() {
+        if(pending.isEmpty()) return;
+        
+        Map<String, String> registered = new HashMap<String, String>(pending);
+        boolean committed = false;
+        Database.beginPlan();
+        try { register(registered.entrySet()); }
+        finally { committed = Database.executePlan(); }
+        if(!committed) return;
+        
+        for(Entry<String, String> entry : registered.entrySet()) pending.remove(entry.getKey(), entry.getValue());
     }
     
     /**
-     * Parses the entity type and returns a valid entity ID
+     * Registers the queued entities that were referred to by the flush plan on the current thread.<br />
+     * Each plan registers the entities its own rows refer to, since another plan that registers them might not be committed first.
+     * The entities stay queued until {@link #flush()} has committed them.
+     */
+    public static void flushReferenced() {
+        Set<String> referenced = REFERENCED.get();
+        if(referenced.isEmpty()) return;
+        
+        Map<String, String> registered = new HashMap<String, String>();
+        for(String typeId : referenced) {
+            String name = pending.get(typeId);
+            if(name != null) registered.put(typeId, name);
+        }
+        referenced.clear();
+        register(registered.entrySet());
+    }
+    
+    /**
+     * Writes the entities to the entities table; rows that already exist are left untouched
+     * @param registered Entities and their names
+     */
+    private static void register(Set<Entry<String, String>> registered) {
+        for(Entry<String, String> entry : registered) {
+            Query.table(EntitiesTable.TableName)
+                 .condition(EntitiesTable.EntityId, entry.getKey())
+                 .value(EntitiesTable.TpName, entry.getValue())
+                 .insertIfAbsent();
+        }
+    }
+    
+    /**
+     * Parses the entity type and returns a valid entity ID.<br />
+     * Unknown entity types are queued to be registered with the next synchronization.
      * @param type Entity type
      * @return Entity ID
      */
     public static String parse(EntityType type) {
         String typeId = type.getTypeId() + ""; // TODO Use the correct metadata
-        if(entities.contains(typeId)) return typeId;
-        entities.add(typeId);
-        if(!Query.table(EntitiesTable.TableName).condition(EntitiesTable.EntityId, typeId).exists()) {
-            Query.table(EntitiesTable.TableName)
-                 .value(EntitiesTable.EntityId, typeId)
-                 .value(EntitiesTable.TpName, "custom_" + type.getName().toLowerCase().replace(" ", "_"))
-                 .insert();
-        }
-        return typeId + "";
+        if(entities.add(typeId)) pending.putIfAbsent(typeId, "custom_" + type.getName().toLowerCase().replace(" ", "_"));
+        if(Database.isPlanning() && pending.containsKey(typeId)) REFERENCED.get().add(typeId);
+        return typeId;
     }
     
 }
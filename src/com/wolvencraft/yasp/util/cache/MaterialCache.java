@@ -20,36 +20,55 @@
 
 package com.wolvencraft.yasp.util.cache;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.bukkit.Material;
 import org.bukkit.block.BlockState;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.material.MaterialData;
 
+import com.wolvencraft.yasp.db.Database;
 import com.wolvencraft.yasp.db.Query;
+import com.wolvencraft.yasp.db.Query.QueryResult;
+import com.wolvencraft.yasp.db.Query.RowHandler;
 import com.wolvencraft.yasp.db.tables.Miscellaneous.MaterialsTable;
 import com.wolvencraft.yasp.settings.Constants;
 import com.wolvencraft.yasp.settings.Constants.ItemsWithMetadata;
+import com.wolvencraft.yasp.util.Message;
 import com.wolvencraft.yasp.util.cache.CachedData.CachedDataProcess;
 
 /**
- * Caches material IDs server-side
+ * Caches material IDs server-side.<br />
+ * The known materials are loaded from the database in a single query. Materials that are not in the table yet
+ * are queued, and registered in one batch with the next synchronization. Until then, every flush plan that refers to
+ * a queued material registers it ahead of its own rows.
  * @author bitWolfy
  *
  */
 public class MaterialCache implements CachedDataProcess {
 
     private final long REFRESH_RATE_TICKS = (long)(24 * 3600 * 20);
-    private static List<String> materials;
+    private static Set<String> materials;
+    private static ConcurrentMap<String, String> pending;
+    private static final ThreadLocal<Set<String>> REFERENCED = new ThreadLocal<Set<String>>() {
+        @Override
+        protected Set<String> initialValue() { return new HashSet<String>(); }
+    };
     
     /**
      * <b>Default constructor</b><br />
-     * Creates a new List for data storage
+     * Creates a new concurrent Set for data storage, and a queue for the materials that have to be registered
      */
     public MaterialCache() {
-        materials = new ArrayList<String>();
+        materials = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        pending = new ConcurrentHashMap<String, String>();
     }
     
     @Override
@@ -57,36 +76,120 @@ public class MaterialCache implements CachedDataProcess {
         return REFRESH_RATE_TICKS;
     }
     
+    /**
+     * Loads all materials from the materials table.<br />
+     * Materials are only ever added to the cache, so the ones registered by this server are not looked up again.
+     */
     @Override
     public void run() {
-        materials.clear();
+        long rows = Query.table(MaterialsTable.TableName).column(MaterialsTable.MaterialId).stream(new RowHandler() {
+            
+            @Override
+            public boolean handle(QueryResult row) {
+                materials.add(row.asString(MaterialsTable.MaterialId));
+                return true;
+            }
+            
+        });
+        if(rows >= 0) Message.debug("Loaded " + rows + " materials");
+    }
+    
+    /**
+     * Registers the queued materials in the materials table.<br />
+     * All materials are written in a single batch; rows that already exist are left untouched.
+     * The materials are only removed from the queue once the batch has been committed.
+     */
+    public static void flush() {
+        if(pending.isEmpty()) return;
+        
+        Map<String, String> registered = new HashMap<String, String>(pending);
+        boolean committed = false;
+        Database.beginPlan();
+        try { register(registered.entrySet()); }
+        finally { committed = Database.executePlan(); }
+        if(!committed) return;
+        
+        for(Entry<String, String> entry : registered.entrySet()) pending.remove(entry.getKey(), entry.getValue());
+    }
+    
+    /**
+     * Registers the queued materials that were referred to by the flush plan on the current thread.<br />
+     * Each plan registers the materials its own rows refer to, since another plan that registers them might not be committed first.
+     * The materials stay queued until {@link #flush()} has committed them.
+     */
+    public static void flushReferenced() {
+        Set<String> referenced = REFERENCED.get();
+        if(referenced.isEmpty()) return;
+        
+        Map<String, String> registered = new HashMap<String, String>();
+        for(String material : referenced) {
+            String name = pending.get(material);
+            if(name != null) registered.put(material, name);
+        }
+        referenced.clear();
+        register(registered.entrySet());
+    }
+    
+    /**
+     * Writes the materials to the materials table; rows that already exist are left untouched
+     * @param registered Materials and their names
+     */
+    private static void register(Set<Entry<String, String>> registered) {
+        for(Entry<String, String> entry : registered) {
+            Query.table(MaterialsTable.TableName)
+                 .condition(MaterialsTable.MaterialId, entry.getKey())
+                 .value(MaterialsTable.TpName, entry.getValue())
+                 .insertIfAbsent();
+        }
     }
     
     /**
      * Parses a block type ID and data value and returns a String representation of the material.<br />
-     * Inserts a new entry into the materials table
+     * If the material is not known yet, it is queued to be registered in the materials table
      * @param type Type ID
      * @param data Data value
      * @param name Item name
      * @return Material string
      */
     private static String parse(int type, int data, String name) {
-        String material = "";
+        String material = getKey(type, data);
+        if(type == -1 || Material.getMaterial(type) == null) return material;
+        
+        if(materials.add(material)) pending.putIfAbsent(material, "custom_" + name + "_" + data);
+        if(Database.isPlanning() && pending.containsKey(material)) REFERENCED.get().add(material);
+        return material;
+    }
     
+    /**
+     * Returns a String representation of the material without registering it in the materials table
+     * @param type Type ID
+     * @param data Data value
+     * @return Material string
+     */
+    private static String getKey(int type, int data) {
         if(type == -1) return "-1:0";
         if(Material.getMaterial(type) == null) return "0:0";
-        if(!Constants.ItemsWithMetadata.contains(type)) material = type + ":" + "0";
-        else material = type + ":" + ItemsWithMetadata.get(type).getValidData(data);
-        
-        if(materials.contains(material)) return material;
-        materials.add(material);
-        if(!Query.table(MaterialsTable.TableName).condition(MaterialsTable.MaterialId, material).exists()) {
-            Query.table(MaterialsTable.TableName)
-                 .value(MaterialsTable.MaterialId, material)
-                 .value(MaterialsTable.TpName, "custom_" + name + "_" + data)
-                 .insert();
-        }
-        return material;
+        if(!Constants.ItemsWithMetadata.contains(type)) return type + ":" + "0";
+        return type + ":" + ItemsWithMetadata.get(type).getValidData(data);
+    }
+    
+    /**
+     * Returns a String representation of the material of an item stack.<br />
+     * Unlike {@link #parse(ItemStack)}, never touches the database, so it is safe to use on every event.
+     * @param stack Item stack
+     * @return Material string
+     */
+    public static String getKey(ItemStack stack) {
+        return getKey(stack.getTypeId(), stack.getDurability());
+    }
+    
+    /**
+     * Returns a String representation of the material of a block, without touching the database
+     * @param block Block
+     * @return Material string
+     */
+    public static String getKey(BlockState block) {
+        return getKey(block.getTypeId(), block.getRawData());
     }
     
     /**
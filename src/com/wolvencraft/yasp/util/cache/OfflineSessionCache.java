@@ -21,29 +21,47 @@
 package com.wolvencraft.yasp.util.cache;
 
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.wolvencraft.yasp.db.DatabaseExecutor;
 import com.wolvencraft.yasp.session.OfflineSession;
+import com.wolvencraft.yasp.settings.LocalConfiguration;
 import com.wolvencraft.yasp.util.Message;
 import com.wolvencraft.yasp.util.cache.CachedData.CachedDataProcess;
-import java.util.UUID;
 
 /**
- * Caches Offline sessions server-side
+ * Caches Offline sessions server-side.<br />
+ * The cache holds a limited number of sessions, and evicts the least recently used one once it is full.
+ * Sessions that have not been requested for a while are evicted by the cleanup process.<br />
+ * Cached totals are not refreshed on every sync. Instead, a session that is requested after its totals
+ * have gone stale is returned as it is, and its totals are refreshed in the background.
  * @author bitWolfy
  *
  */
 public class OfflineSessionCache implements CachedDataProcess {
 
-    private final long REFRESH_RATE_TICKS = (long)(24 * 3600 * 20);
-    private static List<OfflineSession> sessions;
+    private final long REFRESH_RATE_TICKS = (long)(60 * 20);
+    private static Map<UUID, CachedSession> sessions;
     
     /**
      * <b>Default constructor</b><br />
-     * Creates an list of Offline sessions for storage
+     * Creates a bounded, access-ordered map of Offline sessions for storage
      */
     public OfflineSessionCache() {
-        sessions = new ArrayList<OfflineSession>();
+        sessions = new LinkedHashMap<UUID, CachedSession>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, CachedSession> eldest) {
+                return size() > Math.max(1, LocalConfiguration.DBOfflineCacheSize.toInteger());
+            }
+        };
     }
     
     @Override
@@ -53,24 +71,45 @@ public class OfflineSessionCache implements CachedDataProcess {
     
     @Override
     public void run() {
-        for(OfflineSession session : new ArrayList<OfflineSession>(sessions)) {
-            if(!session.isOnline()) sessions.remove(session);
+        long expiry = System.currentTimeMillis() - LocalConfiguration.DBOfflineCacheTTL.toInteger() * 1000L;
+        int evicted = 0;
+        synchronized(sessions) {
+            Iterator<CachedSession> it = sessions.values().iterator();
+            while(it.hasNext()) {
+                if(it.next().lastAccess >= expiry) continue;
+                it.remove();
+                evicted++;
+            }
         }
+        if(evicted > 0) Message.debug("Evicted " + evicted + " offline sessions");
     }
     
     /**
-     * Fetches the OfflineSession from the cache
-     * @param username Player name
+     * Fetches the OfflineSession from the cache.<br />
+     * If the session is not cached, it is created and loaded on the calling thread.
+     * If its totals are stale, the cached session is returned right away and refreshed in the background.
+     * @param uuid Player's uuid
      * @return Offline session
      */
     public static OfflineSession fetch(UUID uuid) {
-        for(OfflineSession session : sessions) {
-            if(session.getUUID().equals(uuid)) return session;
+        CachedSession cached;
+        synchronized(sessions) { cached = sessions.get(uuid); }
+        
+        if(cached == null) {
+            Message.debug("Creating a new offline Session.");
+            CachedSession created = new CachedSession(new OfflineSession(uuid));
+            synchronized(sessions) {
+                cached = sessions.get(uuid);
+                if(cached == null) {
+                    cached = created;
+                    sessions.put(uuid, cached);
+                }
+            }
         }
-        Message.debug("Creating a new offline Session.");
-        OfflineSession session = new OfflineSession(uuid);
-        sessions.add(session);
-        return session;
+        
+        cached.lastAccess = System.currentTimeMillis();
+        if(cached.lastAccess - cached.loaded > LocalConfiguration.DBOfflineCacheRefresh.toInteger() * 1000L) cached.refresh();
+        return cached.session;
     }
     
     /**
@@ -78,6 +117,63 @@ public class OfflineSessionCache implements CachedDataProcess {
      * @return List of stored player sessions
      */
     public static List<OfflineSession> getSessions() {
-        return new ArrayList<OfflineSession>(sessions);
+        List<OfflineSession> result = new ArrayList<OfflineSession>();
+        synchronized(sessions) {
+            for(CachedSession cached : sessions.values()) result.add(cached.session);
+        }
+        return result;
+    }
+    
+    /**
+     * An offline session, along with the time it was last loaded and requested
+     * @author bitWolfy
+     *
+     */
+    private static class CachedSession {
+        
+        private final OfflineSession session;
+        private final AtomicBoolean refreshing;
+        private volatile long loaded;
+        private volatile long lastAccess;
+        
+        /**
+         * <b>Default constructor</b><br />
+         * Wraps a freshly loaded session
+         * @param session Offline session
+         */
+        public CachedSession(OfflineSession session) {
+            this.session = session;
+            this.refreshing = new AtomicBoolean(false);
+            this.loaded = System.currentTimeMillis();
+            this.lastAccess = loaded;
+        }
+        
+        /**
+         * Reloads the totals of the session on the database executor, unless they are already being reloaded
+         */
+        public void refresh() {
+            if(!refreshing.compareAndSet(false, true)) return;
+            Futures.addCallback(DatabaseExecutor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    session.getPlayerTotals().fetchData();
+                    session.getHookTotals().fetchData();
+                    return true;
+                }
+            }), new FutureCallback<Boolean>() {
+                @Override
+                public void onSuccess(Boolean result) {
+                    loaded = System.currentTimeMillis();
+                    refreshing.set(false);
+                }
+                
+                @Override
+                public void onFailure(Throwable t) {
+                    Message.debug("Could not refresh the offline session of " + session.getName() + ": " + t.getMessage());
+                    refreshing.set(false);
+                }
+            });
+        }
+        
     }
 }
@@ -20,8 +20,11 @@
 
 package com.wolvencraft.yasp.util.cache;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
@@ -37,24 +40,26 @@ import com.wolvencraft.yasp.util.PlayerUtil;
 import com.wolvencraft.yasp.util.cache.CachedData.CachedDataProcess;
 
 /**
- * Caches Online player sessions server-side
+ * Caches Online player sessions server-side.<br />
+ * Sessions are indexed by the player's UUID, so that event handlers can look them up without scanning all sessions.
  * @author bitWolfy
  *
  */
 public class OnlineSessionCache implements CachedDataProcess {
 
     private final long REFRESH_RATE_TICKS = (long)(5 * 60 * 20);
-    private static List<OnlineSession> sessions = new ArrayList<OnlineSession>();
+    private static final ConcurrentMap<UUID, OnlineSession> sessions = new ConcurrentHashMap<UUID, OnlineSession>();
     
     /**
      * <b>Default constructor</b><br />
-     * Creates a List for data storage and loads the online players into the list at a delay
+     * Loads the online players into the list at a delay
      */
     public OnlineSessionCache() {
         Bukkit.getScheduler().runTaskLaterAsynchronously(Statistics.getInstance(), new Runnable() {
             
             @Override
             public void run() {
+                PlayerCache.warm();
                 for(Player player : Bukkit.getServer().getOnlinePlayers()) {
                     if(StatPerms.Statistics.has(player))
                         //Skip data tracking if not all players data is read from database
@@ -108,17 +113,28 @@ public class OnlineSessionCache implements CachedDataProcess {
      * @return OnlineSession associated with the player
      */
     public static OnlineSession fetch(Player player, boolean login) {
-        for(OnlineSession session : sessions) {
-            if(session.getUUID().equals(player.getUniqueId())) {
-                if(login && RemoteConfiguration.ShowWelcomeMessages.asBoolean()) {
-                    Message.send(player, RemoteConfiguration.WelcomeMessage.asString().replace("<PLAYER>", player.getPlayerListName()));
-                }
-                return session;
-            }
+        OnlineSession session = sessions.get(player.getUniqueId());
+        if(session == null) session = create(player, login);
+        else if(login && RemoteConfiguration.ShowWelcomeMessages.asBoolean()) {
+            Message.send(player, RemoteConfiguration.WelcomeMessage.asString().replace("<PLAYER>", player.getPlayerListName()));
         }
+        return session;
+    }
+    
+    /**
+     * Creates a new session for the specified player, unless another thread has just created one.<br />
+     * Creating a session starts loading the player's data, so only one session can be created for each player.
+     * @param player Tracked player
+     * @param login login event
+     * @return OnlineSession associated with the player
+     */
+    private static synchronized OnlineSession create(Player player, boolean login) {
+        OnlineSession existing = sessions.get(player.getUniqueId());
+        if(existing != null) return existing;
+        
         Message.debug("Creating a new user session for " + player.getName() + "(#" + sessions.size() + ")");
         OnlineSession newSession = new OnlineSession(player);
-        sessions.add(newSession);
+        sessions.put(player.getUniqueId(), newSession);
         
         if(login && RemoteConfiguration.ShowFirstJoinMessages.asBoolean()) {
             Message.send(
@@ -148,15 +164,17 @@ public class OnlineSessionCache implements CachedDataProcess {
     private static void removeSession(OnlineSession session) {
         Message.debug("Removing a user session for " + session.getName());
         Bukkit.getServer().getPluginManager().callEvent(new SessionRemoveEvent(session.getUUID()));
-        sessions.remove(session);
+        sessions.remove(session.getUUID(), session);
     }
     
     /**
-     * Returns all stored sessions.
-     * @return List of stored player sessions
+     * Returns all stored sessions.<br />
+     * The returned view is not copied; it is safe to iterate while sessions are added or removed,
+     * but it might not reflect those changes.
+     * @return Stored player sessions
      */
-    public static List<OnlineSession> getSessions() {
-        return new ArrayList<OnlineSession>(sessions);
+    public static Collection<OnlineSession> getSessions() {
+        return Collections.unmodifiableCollection(sessions.values());
     }
 
     
@@ -20,60 +20,86 @@
 
 package com.wolvencraft.yasp.util.cache;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
-import org.bukkit.metadata.FixedMetadataValue;
 
-import com.wolvencraft.yasp.Statistics;
+import com.google.common.base.Joiner;
 import com.wolvencraft.yasp.db.Query;
 import com.wolvencraft.yasp.db.Query.QueryResult;
+import com.wolvencraft.yasp.db.Query.RowHandler;
 import com.wolvencraft.yasp.db.tables.Normal.PlayerStats;
 import com.wolvencraft.yasp.util.Message;
 
-import java.util.UUID;
-import org.bukkit.Bukkit;
-
 /**
- * Caches player names and IDs server-side
+ * Caches player names and IDs server-side.<br />
+ * Player IDs are kept in a concurrent map indexed by UUID. A player that is not in the map is resolved
+ * with a single upsert, which creates the player's row if necessary and keeps the name up to date.
  * @author bitWolfy
  *
  */
 public class PlayerCache {
     
+    private static final ConcurrentMap<UUID, Integer> ids = new ConcurrentHashMap<UUID, Integer>();
+    private static volatile Boolean legacyRows = null;
+    
     private PlayerCache() { }
     
+    /**
+     * Loads the IDs of all online players in a single query
+     */
+    public static void warm() {
+        List<String> uuids = new ArrayList<String>();
+        for(Player player : Bukkit.getServer().getOnlinePlayers()) {
+            if(!ids.containsKey(player.getUniqueId())) uuids.add("'" + player.getUniqueId().toString() + "'");
+        }
+        if(uuids.isEmpty()) return;
+        
+        List<String> condition = new ArrayList<String>();
+        condition.add("`" + PlayerStats.UUID.getColumnName() + "` IN (" + Joiner.on(", ").join(uuids) + ")");
+        long rows = Query.table(PlayerStats.TableName)
+            .column(PlayerStats.PlayerId, PlayerStats.UUID)
+            .condition(condition)
+            .stream(new RowHandler() {
+                
+                @Override
+                public boolean handle(QueryResult row) {
+                    try { ids.put(UUID.fromString(row.asString(PlayerStats.UUID)), row.asInt(PlayerStats.PlayerId)); }
+                    catch (IllegalArgumentException ex) { Message.debug("Invalid UUID in the players table: " + row.asString(PlayerStats.UUID)); }
+                    return true;
+                }
+                
+            });
+        if(rows >= 0) Message.debug("Loaded the IDs of " + rows + " online players");
+    }
+    
+    /**
+     * Removes the player's ID from the cache.<br />
+     * Should be called when the player's row might be removed from the database.
+     * @param uuid Player's uuid
+     */
+    public static void invalidate(UUID uuid) {
+        ids.remove(uuid);
+    }
+    
     /**
      * Returns the ID of the player
      * @param player Player to look up
      * @return Player ID
      */
     public static int get(Player player) {
+        Integer playerId = ids.get(player.getUniqueId());
+        if(playerId != null) return playerId;
+        
         long start = System.currentTimeMillis();
-        if(player.hasMetadata("stats_id") && !player.getMetadata("stats_id").isEmpty()) {
-            int playerId = player.getMetadata("stats_id").get(0).asInt();
-            if (playerId != -1){
-                                
-                long stop = System.currentTimeMillis();
-                Message.debug("Took "+(stop-start)+"ms to retrieve " + player.getName()+"'s ID from cache.");
-                
-                return playerId;
-            } else {
-                playerId = get(player.getName(),player.getUniqueId());
-                player.setMetadata("stats_id", new FixedMetadataValue(Statistics.getInstance(), playerId));
-                
-                long stop = System.currentTimeMillis();
-                Message.debug("Took "+(stop-start)+"ms to retrieve " + player.getName()+"'s ID from database.");
-                
-                return playerId;  
-            }
-        } else {
-            int playerId = get(player.getName(),player.getUniqueId());
-            player.setMetadata("stats_id", new FixedMetadataValue(Statistics.getInstance(), playerId));
-                            
-            long stop = System.currentTimeMillis();
-            Message.debug("Took "+(stop-start)+"ms to retrieve " + player.getName()+"'s ID from database.");
-                
-            return playerId;
-        }
+        int id = get(player.getName(), player.getUniqueId());
+        Message.debug("Took " + (System.currentTimeMillis() - start) + "ms to retrieve " + player.getName() + "'s ID from database.");
+        return id;
     }
     
     /**
@@ -103,11 +129,14 @@ public class PlayerCache {
     
     /**
      * Returns the player ID based on his uuid.<br />
-     * Very resource-heavy; if possible, use <code>get(Player player);</code>
+     * The player is not added to the database if he is not there yet.
      * @param uuid Player's uuid to look up
      * @return Player ID or -1 if players wasn#t found
      */
     public static int get(UUID uuid) {
+        Integer cached = ids.get(uuid);
+        if(cached != null) return cached;
+        
         int playerId = -1;
         QueryResult playerRow = Query.table(PlayerStats.TableName)
                                      .column(PlayerStats.PlayerId)
@@ -117,6 +146,7 @@ public class PlayerCache {
             return -1;
         }
         playerId = playerRow.asInt(PlayerStats.PlayerId);
+        ids.put(uuid, playerId);
         Message.debug("User ID (" + playerId +") found.");
         return playerId;
     }
@@ -141,71 +171,47 @@ public class PlayerCache {
 
 
     /**
-     * Returns the player ID based on his uuid.<br />
-     * If the no player is found with the given uuid searches for an player by the given name in the database and updates the uuid.
-     * This is needen to support also pre 1.8 databases with no uuid's at all.
-     * Very resource-heavy; if possible, use <code>get(Player player);</code>
-     * @param username_ Player name to look up
-     * @param uuid_ Players uuid to look up
-     * @return Player ID or -1 if players wasn#t found
+     * Returns the player ID based on his uuid, adding the player to the database if necessary.<br />
+     * The player's row is created or renamed with a single upsert that also returns its ID.
+     * If the database still contains rows from before 1.8 without a uuid, a row with the player's name is claimed first,
+     * so that players who have not joined since the upgrade keep their statistics.
+     * @param username Player name to look up
+     * @param uuid Players uuid to look up
+     * @return Player ID or -1 if the player could not be added
      */
-    public static int get(String username_, UUID uuid_) {
-        final String username = username_; 
-        final UUID uuid = uuid_;
-        int playerId = -1;
-        int tries = 0;
-        
+    public static int get(String username, UUID uuid) {
         Message.debug("Retrieving a player ID for " + username);
-        do {
-            tries++;
-            QueryResult playerRow = Query.table(PlayerStats.TableName)
-                    .column(PlayerStats.PlayerId)
-                    .condition(PlayerStats.UUID, uuid.toString())
-                    .select();
-            
-            if(playerRow == null) {
-                
-                //Try if a player with the given name already exists in the database
-                playerId = get(username);
-                //If the player exists updtae his UUID
-                if(playerId != -1){
-                    
-                    Bukkit.getScheduler().runTaskAsynchronously(Statistics.getInstance(), new Runnable() {
-                        @Override
-                        public void run(){
-                            Query.table(PlayerStats.TableName)
-                            .value(PlayerStats.UUID, uuid)
-                            .condition(PlayerStats.Name, username)
-                            .update();
-                        }
-                    });
-                    
-                    break;
-                //If the player does not exist creat a new entry in the database    
-                } else {
-                    
-                    Query.table(PlayerStats.TableName)
-                    .value(PlayerStats.Name, username)
-                    .value(PlayerStats.UUID, uuid)
-                    .insert();
-                    
-                continue;    
-                }              
-            } else {
-                //If an player with the given UUID exists in the database update his name
-                Bukkit.getScheduler().runTaskAsynchronously(Statistics.getInstance(), new Runnable() {
-                    @Override
-                    public void run(){
-                        Query.table(PlayerStats.TableName)
-                        .value(PlayerStats.Name, username)
-                        .condition(PlayerStats.UUID, uuid.toString())
-                        .update();
-                    }
-                });               
-            }
-            playerId = playerRow.asInt(PlayerStats.PlayerId);
-        } while (playerId == -1);
-        Message.debug("User ID (" + playerId +") after "+tries +" tries found.");
+        
+        if(hasLegacyRows() && get(uuid) == -1) {
+            Query.table(PlayerStats.TableName)
+                .value(PlayerStats.UUID, uuid.toString())
+                .condition(PlayerStats.Name, username)
+                .condition(PlayerStats.UUID, "NULL")
+                .update();
+        }
+        
+        int playerId = (int) Query.table(PlayerStats.TableName)
+            .value(PlayerStats.Name, username)
+            .condition(PlayerStats.UUID, uuid.toString())
+            .upsertId(PlayerStats.PlayerId);
+        
+        if(playerId > 0) ids.put(uuid, playerId);
+        Message.debug("User ID (" + playerId +") found.");
         return playerId;
     }
+    
+    /**
+     * Checks if the players table contains rows without a uuid.<br />
+     * The result is looked up once, since new rows always have a uuid.
+     * @return <b>true</b> if there are legacy rows, <b>false</b> otherwise
+     */
+    private static boolean hasLegacyRows() {
+        if(legacyRows == null) {
+            legacyRows = Query.table(PlayerStats.TableName)
+                .column(PlayerStats.PlayerId)
+                .condition(PlayerStats.UUID, "NULL")
+                .exists();
+        }
+        return legacyRows;
+    }
 }
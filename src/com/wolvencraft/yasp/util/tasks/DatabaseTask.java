@@ -20,18 +20,30 @@
 
 package com.wolvencraft.yasp.util.tasks;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
 import org.bukkit.Bukkit;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import com.wolvencraft.yasp.Statistics;
+import com.wolvencraft.yasp.db.Database;
+import com.wolvencraft.yasp.db.FlushExecutor;
 import com.wolvencraft.yasp.events.plugin.SynchronizationCompleteEvent;
 import com.wolvencraft.yasp.events.plugin.SynchronizationEvent;
-import com.wolvencraft.yasp.session.OfflineSession;
 import com.wolvencraft.yasp.session.OnlineSession;
 import com.wolvencraft.yasp.settings.LocalConfiguration;
 import com.wolvencraft.yasp.settings.Module;
 import com.wolvencraft.yasp.settings.RemoteConfiguration;
+import com.wolvencraft.yasp.util.ExceptionHandler;
 import com.wolvencraft.yasp.util.Message;
-import com.wolvencraft.yasp.util.cache.OfflineSessionCache;
+import com.wolvencraft.yasp.util.cache.EntityCache;
+import com.wolvencraft.yasp.util.cache.MaterialCache;
 import com.wolvencraft.yasp.util.cache.OnlineSessionCache;
 
 /**
@@ -42,36 +54,120 @@ import com.wolvencraft.yasp.util.cache.OnlineSessionCache;
 public class DatabaseTask implements Runnable {
     
     private static int iteration;
+    private static SyncController controller = null;
+    
+    private final int slots;
+    private int slot;
+    private int players;
+    private int failed;
+    private long started;
+    private long busy;
+    private boolean skipped;
 
     /**
-     * <b>Default constructor.</b>
+     * <b>Default constructor.</b><br />
+     * Players are spread between the configured number of time slots, and the global statistics get a slot of their own.
+     * @param interval Synchronization interval, in ticks
      */
-    public DatabaseTask() {
+    public DatabaseTask(long interval) {
         iteration = 0;
+        slots = Math.max(1, LocalConfiguration.DBSyncSlots.toInteger());
+        slot = 0;
+        skipped = false;
+        controller = new SyncController(interval, slots + 1);
+    }
+    
+    /**
+     * Returns the controller that decides how often the data is synchronized
+     * @return Synchronization controller, or <b>null</b> if the task has not been created yet
+     */
+    public static SyncController getController() {
+        return controller;
+    }
+    
+    /**
+     * Schedules the task to run after the specified delay.<br />
+     * The task reschedules itself after every run, using the delay picked by the {@link SyncController}.
+     * @param delay Delay, in ticks
+     */
+    public void schedule(long delay) {
+        Statistics plugin = Statistics.getInstance();
+        if(!plugin.isEnabled()) return;
+        Bukkit.getScheduler().runTaskLaterAsynchronously(plugin, this, delay);
     }
     
     /**
      * Database synchronization method.<br />
-     * Wraps around <code>public static void commit();</code>
+     * Synchronizes the players in the current time slot, or the global statistics if it is their turn.
      */
     @Override
     public void run() {
                 if (Statistics.getInstance().isWorking(this.getClass().getSimpleName())) {
                     Message.debug("Database syncronisation arleady started!");
+                    schedule(controller.getSlotDelay());
 		   return;
 		}
                 Statistics.getInstance().setWorking(this.getClass().getSimpleName(),true);
-                commit();
-                Message.debug("Database syncronisation finished");
-                Statistics.getInstance().setWorking(this.getClass().getSimpleName(),false);
+                try {
+                    commitSlot();
+                    Message.debug("Database syncronisation finished");
+                } finally {
+                    Statistics.getInstance().setWorking(this.getClass().getSimpleName(),false);
+                    schedule(controller.getSlotDelay());
+                }
+    }
+    
+    /**
+     * Commits the data that belongs to the current time slot.<br />
+     * The first slots hold the players whose ID matches the slot number, the last one holds the global statistics.
+     * {@link SynchronizationEvent} is called once per cycle, before the first slot; if it is cancelled, the whole cycle is skipped.
+     * Once the global statistics are pushed, the cycle is complete and {@link SynchronizationCompleteEvent} is called.
+     * The synchronization interval is adjusted once per cycle, from the average time it took to synchronize a slot of players.
+     */
+    private void commitSlot() {
+        if(Statistics.isPaused()) return;
+        if(slot == 0) {
+            players = 0;
+            failed = 0;
+            busy = 0;
+            started = System.currentTimeMillis();
+            
+            SynchronizationEvent event = new SynchronizationEvent(iteration);
+            Bukkit.getServer().getPluginManager().callEvent(event);
+            skipped = event.isCancelled();
+        }
+        
+        if(!skipped) {
+            long slotStarted = System.currentTimeMillis();
+            MaterialCache.flush();
+            EntityCache.flush();
+            Database.replaySpool();
+            if(slot < slots) {
+                List<OnlineSession> sessions = getOnlineSessions(slot, slots);
+                Message.debug("Synchronizing slot " + (slot + 1) + "/" + slots + " (" + sessions.size() + " players)");
+                players += sessions.size();
+                failed += flush(sessions);
+                busy += System.currentTimeMillis() - slotStarted;
+            } else {
+                Message.debug("Synchronizing global statistics");
+                pushGlobal();
+                complete(players, failed, started);
+                controller.update(getPendingCount(), busy / slots);
+            }
+        }
+        slot = (slot + 1) % (slots + 1);
     }
     
     /**
-     * Commits collected data to the database.<br />
+     * Commits all collected data to the database at once.<br />
      * Performs actions in the following order:<br />
      * <ul>
      * <li>Confirm that the synchronization is not paused.</li>
-     * <li>Push all player data to the database</li>
+     * <li>Register the materials and entities that were encountered since the last sync</li>
+     * <li>Replay the queries that were spooled while the database was unreachable</li>
+     * <li>Push all player data to the database, one transaction per group of players.<br />
+     * Players are split between the synchronization lanes, which run concurrently. The rows of a group are
+     * collected first, and then written with one batch per table</li>
      * <li>Push generic server statistics to the database</li>
      * <li>Fetch server totals for signs and statistics books</li>
      * <li>Clear settings cache</li>
@@ -87,30 +183,149 @@ public class DatabaseTask implements Runnable {
         if(event.isCancelled()) return;
         
         Message.debug("Database synchronization in progress");
+        long started = System.currentTimeMillis();
+        
+        MaterialCache.flush();
+        EntityCache.flush();
+        Database.replaySpool();
         
+        List<OnlineSession> sessions = getOnlineSessions(0, 1);
+        int failed = flush(sessions);
+        pushGlobal();
+        complete(sessions.size(), failed, started);
+    }
+    
+    /**
+     * Returns the number of entries that are waiting to be synchronized, across all online players
+     * @return Number of pending entries
+     */
+    private static int getPendingCount() {
+        int pending = 0;
+        for(OnlineSession session : OnlineSessionCache.getSessions()) pending += session.getPendingCount();
+        return pending;
+    }
+    
+    /**
+     * Returns the online sessions in the specified time slot
+     * @param slot Time slot
+     * @param slots Total number of time slots for players
+     * @return List of sessions
+     */
+    private static List<OnlineSession> getOnlineSessions(int slot, int slots) {
+        List<OnlineSession> sessions = new ArrayList<OnlineSession>();
         for(OnlineSession session : OnlineSessionCache.getSessions()) {
             if(!session.isOnline()){
                 Message.debug("Skipping player "+session.getName());
                 continue;
             }
-            Message.debug("Saving online player data: "+session.getName()+ " ID:" + session.getId());
-            session.pushData();
-            session.getPlayerTotals().fetchData();
+            if(((session.getId() % slots) + slots) % slots != slot) continue;
+            sessions.add(session);
         }
+        return sessions;
+    }
+    
+    /**
+     * Pushes the data of the specified players, spreading them between the synchronization lanes.<br />
+     * Blocks until all players have been synchronized.
+     * @param sessions Sessions to synchronize
+     * @return Number of players whose data had to be spooled locally
+     */
+    private static int flush(List<OnlineSession> sessions) {
+        List<List<OnlineSession>> lanes = new ArrayList<List<OnlineSession>>();
+        for(int i = 0; i < FlushExecutor.getParallelism(); i++) lanes.add(new ArrayList<OnlineSession>());
+        for(OnlineSession session : sessions) lanes.get(FlushExecutor.getLane(session.getId())).add(session);
         
-        for(OfflineSession session : OfflineSessionCache.getSessions()) {
-            Message.debug("Saving offline player data: " +session.getName()+ " ID:" + session.getId());
-            session.getPlayerTotals().fetchData();
+        int groupSize = Math.max(1, LocalConfiguration.DBSyncGroup.toInteger());
+        Map<ListenableFuture<Integer>, Integer> flushes = new LinkedHashMap<ListenableFuture<Integer>, Integer>();
+        for(int lane = 0; lane < lanes.size(); lane++) {
+            List<OnlineSession> laneSessions = lanes.get(lane);
+            for(int start = 0; start < laneSessions.size(); start += groupSize) {
+                List<OnlineSession> group = laneSessions.subList(start, Math.min(start + groupSize, laneSessions.size()));
+                flushes.put(FlushExecutor.submit(lane, new GroupFlush(group)), group.size());
+            }
         }
         
-        Statistics.getServerStatistics().pushData();
+        int failed = 0;
+        for(Entry<ListenableFuture<Integer>, Integer> flush : flushes.entrySet()) {
+            try { failed += flush.getKey().get(); }
+            catch (ExecutionException ex) {
+                failed += flush.getValue();
+                ExceptionHandler.handle(ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return failed;
+    }
+    
+    /**
+     * Pushes the data that does not belong to any online player, i.e. the server statistics, and clears the settings cache.<br />
+     * The totals of offline players are not fetched here; the offline session cache refreshes them when they are requested.
+     */
+    private static void pushGlobal() {
+        Database.beginTransaction();
+        try { Statistics.getServerStatistics().pushData(); }
+        finally { Database.commitTransaction(); }
         Statistics.getServerTotals().fetchData();
         
         Module.clearCache();
         RemoteConfiguration.clearCache();
         LocalConfiguration.clearCache();
-        
-        Bukkit.getServer().getPluginManager().callEvent(new SynchronizationCompleteEvent(iteration));
+    }
+    
+    /**
+     * Reports the end of a synchronization cycle
+     * @param players Number of players synchronized
+     * @param failed Number of players whose data had to be spooled locally
+     * @param started Time the cycle started at
+     */
+    private static void complete(int players, int failed, long started) {
+        long duration = System.currentTimeMillis() - started;
+        Message.debug("Synchronized " + players + " players in " + duration + " ms");
+        Bukkit.getServer().getPluginManager().callEvent(new SynchronizationCompleteEvent(iteration, players, failed, duration));
         iteration++;
     }
+    
+    /**
+     * Pushes the data of a group of players in a single transaction.<br />
+     * The writes of all players in the group are planned first, so that each table receives a few large batches.
+     * Materials and entities that the group's rows refer to, and that are not registered yet, are written ahead of the player rows.<br />
+     * Runs on a synchronization lane; the result is the number of players whose data had to be spooled locally.
+     * @author bitWolfy
+     *
+     */
+    private static class GroupFlush implements Callable<Integer> {
+        
+        private final List<OnlineSession> group;
+        
+        public GroupFlush(List<OnlineSession> group) {
+            this.group = group;
+        }
+        
+        @Override
+        public Integer call() {
+            boolean committed = false;
+            Database.beginPlan();
+            try {
+                for(OnlineSession session : group) {
+                    Message.debug("Saving online player data: "+session.getName()+ " ID:" + session.getId());
+                    session.pushData();
+                }
+            } finally {
+                Database.planAhead(new Runnable() {
+                    @Override
+                    public void run() {
+                        MaterialCache.flushReferenced();
+                        EntityCache.flushReferenced();
+                    }
+                });
+                committed = Database.executePlan();
+                if(!committed) Message.debug("Player data was spooled locally");
+            }
+            for(OnlineSession session : group) session.getPlayerTotals().fetchData();
+            return committed ? 0 : group.size();
+        }
+        
+    }
 }
@@ -0,0 +1,116 @@
+/*
+ * SyncController.java
+ *
+ * Statistics
+ * Copyright (C) 2013 bitWolfy <http://www.wolvencraft.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.wolvencraft.yasp.util.tasks;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import com.wolvencraft.yasp.settings.LocalConfiguration;
+import com.wolvencraft.yasp.util.Message;
+
+/**
+ * Adjusts the synchronization interval to the amount of pending data and the speed of the database.<br />
+ * The interval is shortened when the backlog grows past its limit, so that the memory usage stays bounded,
+ * and stretched when the database is slow to respond or there is nothing to synchronize.
+ * Otherwise, it gradually returns to the configured interval.
+ * @author bitWolfy
+ *
+ */
+@Getter(AccessLevel.PUBLIC)
+public class SyncController {
+    
+    private static final double SMOOTHING = 0.3;
+    private static final long MS_PER_TICK = 50;
+    
+    private final long baseInterval;
+    private final long minInterval;
+    private final long maxInterval;
+    private final int slots;
+    private final int backlogLimit;
+    private final boolean adaptive;
+    
+    private volatile long interval;
+    private volatile int backlog;
+    private volatile double latency;
+    private volatile String reason;
+    
+    /**
+     * <b>Default constructor</b><br />
+     * Creates a new controller for the specified interval
+     * @param baseInterval Configured synchronization interval, in ticks
+     * @param slots Number of time slots the interval is split into
+     */
+    public SyncController(long baseInterval, int slots) {
+        this.baseInterval = baseInterval;
+        this.minInterval = Math.max(slots, baseInterval / 4);
+        this.maxInterval = baseInterval * 4;
+        this.slots = Math.max(1, slots);
+        this.backlogLimit = Math.max(1, LocalConfiguration.DBSyncBacklog.toInteger());
+        this.adaptive = LocalConfiguration.DBSyncAdaptive.toBoolean();
+        
+        this.interval = baseInterval;
+        this.backlog = 0;
+        this.latency = 0;
+        this.reason = adaptive ? "Waiting for the first synchronization" : "Adaptive synchronization is disabled";
+    }
+    
+    /**
+     * Returns the number of ticks until the next time slot
+     * @return Delay, in ticks
+     */
+    public synchronized long getSlotDelay() {
+        return Math.max(1, interval / slots);
+    }
+    
+    /**
+     * Records the outcome of a synchronization cycle and adjusts the interval accordingly.<br />
+     * Should be called once per cycle, so that the interval changes by at most one step each time.
+     * @param pending Number of entries waiting to be synchronized
+     * @param elapsed Average time it took to synchronize a slot of players, in milliseconds
+     */
+    public synchronized void update(int pending, long elapsed) {
+        backlog = pending;
+        latency = latency == 0 ? elapsed : (SMOOTHING * elapsed) + ((1 - SMOOTHING) * latency);
+        if(!adaptive) return;
+        
+        long previous = interval;
+        long slotBudget = getSlotDelay() * MS_PER_TICK;
+        if(backlog > backlogLimit) {
+            interval = Math.max(minInterval, interval / 2);
+            reason = "Backlog of " + backlog + " entries is over the limit of " + backlogLimit;
+        } else if(latency > slotBudget / 2) {
+            interval = Math.min(maxInterval, interval * 3 / 2);
+            reason = "Database is slow to respond (" + Math.round(latency) + " ms per slot)";
+        } else if(backlog == 0) {
+            interval = Math.min(maxInterval, interval * 5 / 4);
+            reason = "Nothing to synchronize";
+        } else {
+            if(interval < baseInterval) interval = Math.min(baseInterval, interval * 5 / 4);
+            else interval = Math.max(baseInterval, interval * 4 / 5);
+            reason = "Normal load";
+        }
+        
+        if(interval != previous) {
+            Message.debug("Synchronization interval changed to " + (interval / 20) + " seconds: " + reason);
+        }
+    }
+    
+}